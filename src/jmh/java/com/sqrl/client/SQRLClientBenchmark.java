@@ -0,0 +1,74 @@
+package com.sqrl.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sqrl.SQRLAuthentication;
+import com.sqrl.SQRLIdentity;
+import com.sqrl.SQRLPasswordParameters;
+import com.sqrl.exception.SQRLException;
+
+/**
+ * End-to-end client operations, scrypt included. N is the scrypt exponent used for the identity; the production
+ * value (16) makes single calls take seconds, the smaller ones show the cost of everything around scrypt.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SQRLClientBenchmark {
+    @Param({ "10", "16" })
+    int N;
+
+    String password = "password";
+    String siteURL = "www.example.com/~bob/sqrl.php?d=5&nut=KJA7nLFDQWWmvt10yVjNDoQ81uTvNorPrr53PPRJesz";
+    SQRLPasswordParameters parameters;
+    SQRLIdentity identity;
+    SQRLSession session;
+
+    @Setup
+    public void setup() throws SQRLException {
+        parameters = new SQRLPasswordParameters(N, 8, 12);
+        identity = SQRLClient.createIdentity("benchmark", null, password, parameters);
+        session = SQRLClient.unlock(identity, password, 24 * 60 * 60 * 1000L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public SQRLAuthentication createAuthentication() throws SQRLException {
+        return SQRLClient.createAuthentication(identity, password, siteURL);
+    }
+
+    @Benchmark
+    public SQRLAuthentication sessionAuthentication() throws SQRLException {
+        return session.createAuthentication(siteURL);
+    }
+
+    @Benchmark
+    public SQRLIdentity changePassword() throws SQRLException {
+        return SQRLClient.changePassword(identity, password, "new password");
+    }
+
+    @Benchmark
+    public SQRLIdentity exportMasterKey() throws SQRLException {
+        return SQRLClient.exportMasterKey(identity, password, parameters);
+    }
+}
@@ -0,0 +1,67 @@
+package com.sqrl.crypto;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Key generation, signing and verification. checkvalid is measured with the shared public key cache (the same
+ * key over and over, like a returning user) and without it (a new key every time).
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Curve25519Benchmark {
+    @Param({ "64", "1024" })
+    int messageLength;
+
+    byte[] sk;
+    byte[] pk;
+    byte[] message;
+    byte[] signature;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(25519);
+        sk = new byte[32];
+        message = new byte[messageLength];
+        rand.nextBytes(sk);
+        rand.nextBytes(message);
+        pk = Curve25519.publickey(sk);
+        signature = Curve25519.signature(message, sk, pk);
+    }
+
+    @Benchmark
+    public byte[] publickey() {
+        return Curve25519.publickey(sk);
+    }
+
+    @Benchmark
+    public byte[] signature() {
+        return Curve25519.signature(message, sk, pk);
+    }
+
+    @Benchmark
+    public boolean checkvalid() throws Exception {
+        return Curve25519.checkvalid(signature, message, pk);
+    }
+
+    @Benchmark
+    public boolean checkvalidUncached() throws Exception {
+        return Curve25519.checkvalid(signature, message, pk, null);
+    }
+}
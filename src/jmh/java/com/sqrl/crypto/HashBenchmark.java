@@ -0,0 +1,72 @@
+package com.sqrl.crypto;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HMACSHA256.mac (as used to derive site keys) and SHA256.digest (as used for password verifiers), with and without
+ * allocating the result.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashBenchmark {
+    @Param({ "32", "1024" })
+    int length;
+
+    byte[] key;
+    byte[] bytes;
+    byte[] out = new byte[32];
+    String realm = "www.example.com/~bob";
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(256);
+        key = new byte[32];
+        bytes = new byte[length];
+        rand.nextBytes(key);
+        rand.nextBytes(bytes);
+    }
+
+    @Benchmark
+    public byte[] hmacRealm() {
+        return HMACSHA256.mac(key, realm);
+    }
+
+    @Benchmark
+    public byte[] hmac() {
+        return HMACSHA256.mac(key, bytes);
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        return SHA256.digest(bytes);
+    }
+
+    @Benchmark
+    public byte[] hmacInto() {
+        HMACSHA256.mac(key, bytes, 0, bytes.length, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] sha256Into() {
+        SHA256.digest(bytes, 0, bytes.length, out, 0);
+        return out;
+    }
+}
@@ -0,0 +1,56 @@
+package com.sqrl.crypto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sqrl.SQRLPasswordParameters;
+
+/**
+ * SCrypt.scrypt over a grid of SQRLPasswordParameters (N is the exponent), and the lambdaworks implementation it
+ * replaced for comparison.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SCryptBenchmark {
+    @Param({ "10", "14", "16" })
+    int N;
+
+    @Param({ "1", "8" })
+    int r;
+
+    @Param({ "1", "4", "12" })
+    int p;
+
+    SQRLPasswordParameters parameters;
+    byte[] salt = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    @Setup
+    public void setup() {
+        parameters = new SQRLPasswordParameters(N, r, p);
+    }
+
+    @Benchmark
+    public byte[] scrypt() {
+        return SCrypt.scrypt("password", salt, parameters);
+    }
+
+    @Benchmark
+    public byte[] lambdaworks() throws Exception {
+        return com.lambdaworks.crypto.SCrypt.scryptJ("password".getBytes(), salt, 1 << N, r, p, 32);
+    }
+}
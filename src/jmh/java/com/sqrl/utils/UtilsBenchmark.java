@@ -0,0 +1,43 @@
+package com.sqrl.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base64Url and URLs.getTLD on the sizes SQRL uses: 32-byte keys, 64-byte signatures and a typical site URL.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilsBenchmark {
+    byte[] key = Base64Url.decode("VxXA0VcczUN6nj_9bMVlCeP7ogpqhmLCK54GIFTSl1s");
+    String signature = "c2PK4d2014l3gQZ-ZuOFafg0UHfO-9Dw9UkoouH3ljtycBbWMu3EjECh_bfgIEPz5ID2PLY0F_uoHJMCYuTyCg";
+    String siteURL = "www.example.com/~bob/sqrl.php?d=5&nut=KJA7nLFDQWWmvt10yVjNDoQ81uTvNorPrr53PPRJesz";
+
+    @Benchmark
+    public String base64UrlEncode() {
+        return Base64Url.encode(key);
+    }
+
+    @Benchmark
+    public byte[] base64UrlDecode() {
+        return Base64Url.decode(signature);
+    }
+
+    @Benchmark
+    public String getTLD() {
+        return URLs.getTLD(siteURL);
+    }
+}
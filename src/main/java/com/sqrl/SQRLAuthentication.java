@@ -21,6 +21,10 @@ public class SQRLAuthentication {
         this.identityAuthentication = new SQRLSignature(siteURL,identityAuthentication);
     }
 
+    public String getRealm() {
+        return sqrlAnonymousId.getRealm();
+    }
+
     public String getSiteURL() {
         return identityAuthentication.getSiteURL();
     }
@@ -0,0 +1,44 @@
+package com.sqrl.authc;
+
+/**
+ * A validated nut, as returned by NutCodec.validate().
+ */
+public class Nut {
+    /**
+     * The nut exactly as it appeared in the site URL
+     */
+    private final String token;
+
+    /**
+     * Issue time, in milliseconds since the epoch (second resolution)
+     */
+    private final long issuedAt;
+
+    /**
+     * Issuing counter, unique per second on the issuing node
+     */
+    private final int counter;
+
+    Nut(String token, long issuedAt, int counter) {
+        this.token = token;
+        this.issuedAt = issuedAt;
+        this.counter = counter;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public int getCounter() {
+        return counter;
+    }
+
+    @Override
+    public String toString() {
+        return "Nut [token=" + token + ", issuedAt=" + issuedAt + ", counter=" + counter + "]";
+    }
+}
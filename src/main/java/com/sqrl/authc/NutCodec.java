@@ -0,0 +1,172 @@
+package com.sqrl.authc;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.sqrl.crypto.HMACSHA256;
+import com.sqrl.crypto.SHA256;
+import com.sqrl.utils.Base64Url;
+
+/**
+ * Mints and validates stateless nuts.
+ *
+ * A nut is 32 bytes, 43 characters once Base64Url encoded:
+ *     8-bit format version
+ *     32-bit issue time in seconds
+ *     32-bit issuing counter
+ *     56-bit client binding, the first 7 bytes of SHA256(clientBinding)
+ *     128-bit truncated HMAC-SHA256 of the preceding 16 bytes
+ *
+ * The HMAC key rotates every rotationPeriod: the key for a period is HMAC-SHA256(secret, period number), so every
+ * node that shares the secret derives the same keys and can validate any nut on its own, without a shared table of
+ * outstanding nuts. Validation is a decode, one HMAC and a few comparisons.
+ *
+ * Issuing is lock-free. Counters are striped by thread, so concurrent issuers do not contend on a single atomic,
+ * and start at a random offset so that two nodes are unlikely to mint the same nut in the same second.
+ */
+public class NutCodec {
+    public static final int NUT_LENGTH = 32;
+    private static final int PAYLOAD_LENGTH = 16;
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Number of counter stripes, a power of 2 */
+    private static final int STRIPES = 16;
+    /** Stripes are 8 longs (a cache line) apart so they do not share a cache line */
+    private static final int PADDING = 8;
+
+    private static class EpochKey {
+        final long epoch;
+        final byte[] key;
+
+        EpochKey(long epoch, byte[] key) {
+            this.epoch = epoch;
+            this.key = key;
+        }
+    }
+
+    private final byte[] secret;
+    private final long rotationPeriod;
+    private final long lifetime;
+    private final long clockSkew;
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * PADDING);
+    private final AtomicReferenceArray<EpochKey> epochKeys = new AtomicReferenceArray<EpochKey>(256);
+
+    /**
+     * @param secret shared secret of all nodes, at least 32 bytes
+     * @param rotationPeriod how long each derived HMAC key is used for issuing, in milliseconds
+     * @param lifetime how long a nut stays valid after it was issued, in milliseconds
+     */
+    public NutCodec(byte[] secret, long rotationPeriod, long lifetime) {
+        if (secret == null || secret.length < 32) throw new IllegalArgumentException("secret must be 32+ bytes");
+        if (rotationPeriod < 1000) throw new IllegalArgumentException("rotation period must be at least 1s");
+        this.secret = secret.clone();
+        this.rotationPeriod = rotationPeriod;
+        this.lifetime = lifetime;
+        this.clockSkew = 5000;
+
+        SecureRandom rand = new SecureRandom();
+        for (int i = 0; i < STRIPES; i++) {
+            counters.set(i * PADDING, rand.nextInt() & 0xffffffffL);
+        }
+    }
+
+    /**
+     * @param clientBinding identifies the client the nut is given to (e.g. its IP address), or null
+     * @return a new Base64Url encoded nut
+     */
+    public String issue(String clientBinding) {
+        return issue(clientBinding, System.currentTimeMillis());
+    }
+
+    String issue(String clientBinding, long now) {
+        long seconds = now / 1000;
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        // the low bits say which stripe issued, so two stripes never hand out the same counter
+        long count = counters.incrementAndGet(stripe * PADDING);
+        int counter = (int) (count * STRIPES + stripe);
+
+        byte[] nut = new byte[NUT_LENGTH];
+        nut[0] = VERSION;
+        putInt(nut, 1, (int) seconds);
+        putInt(nut, 5, counter);
+        bind(nut, clientBinding);
+        byte[] mac = HMACSHA256.mac(keyFor(seconds * 1000 / rotationPeriod), slice(nut, 0, PAYLOAD_LENGTH));
+        System.arraycopy(mac, 0, nut, PAYLOAD_LENGTH, NUT_LENGTH - PAYLOAD_LENGTH);
+        return Base64Url.encode(nut);
+    }
+
+    /**
+     * @param token nut as it appeared in the site URL
+     * @param clientBinding the same client binding that was given to issue()
+     * @return the decoded nut, or null if it was not issued with our secret, has expired or was issued to a
+     *         different client
+     */
+    public Nut validate(String token, String clientBinding) {
+        return validate(token, clientBinding, System.currentTimeMillis());
+    }
+
+    Nut validate(String token, String clientBinding, long now) {
+        if (token == null) return null;
+        byte[] nut = Base64Url.decode(token);
+        if (nut.length != NUT_LENGTH || nut[0] != VERSION) return null;
+
+        long issuedAt = (getInt(nut, 1) & 0xffffffffL) * 1000;
+        if (now - issuedAt > lifetime || issuedAt - now > clockSkew) return null;
+
+        byte[] mac = HMACSHA256.mac(keyFor(issuedAt / rotationPeriod), slice(nut, 0, PAYLOAD_LENGTH));
+        int diff = 0;
+        for (int i = PAYLOAD_LENGTH; i < NUT_LENGTH; i++) {
+            diff |= nut[i] ^ mac[i - PAYLOAD_LENGTH];
+        }
+        if (diff != 0) return null;
+
+        byte[] expected = new byte[NUT_LENGTH];
+        bind(expected, clientBinding);
+        for (int i = 9; i < PAYLOAD_LENGTH; i++) {
+            diff |= nut[i] ^ expected[i];
+        }
+        if (diff != 0) return null;
+
+        return new Nut(token, issuedAt, getInt(nut, 5));
+    }
+
+    private byte[] keyFor(long epoch) {
+        int slot = (int) (epoch & 0xff);
+        EpochKey key = epochKeys.get(slot);
+        if (key == null || key.epoch != epoch) {
+            byte[] label = new byte[8];
+            putInt(label, 0, (int) (epoch >>> 32));
+            putInt(label, 4, (int) epoch);
+            key = new EpochKey(epoch, HMACSHA256.mac(secret, label));
+            epochKeys.set(slot, key);
+        }
+        return key.key;
+    }
+
+    private static void bind(byte[] nut, String clientBinding) {
+        if (clientBinding != null) {
+            byte[] hash = SHA256.digest(clientBinding.getBytes(UTF8));
+            System.arraycopy(hash, 0, nut, 9, PAYLOAD_LENGTH - 9);
+        }
+    }
+
+    private static byte[] slice(byte[] a, int from, int length) {
+        byte[] out = new byte[length];
+        System.arraycopy(a, from, out, 0, length);
+        return out;
+    }
+
+    private static void putInt(byte[] a, int off, int v) {
+        a[off] = (byte) (v >>> 24);
+        a[off + 1] = (byte) (v >>> 16);
+        a[off + 2] = (byte) (v >>> 8);
+        a[off + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] a, int off) {
+        return ((a[off] & 0xff) << 24) | ((a[off + 1] & 0xff) << 16) | ((a[off + 2] & 0xff) << 8) | (a[off + 3] & 0xff);
+    }
+}
@@ -0,0 +1,157 @@
+package com.sqrl.authc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers which nuts have already been used, so that a captured signed site URL cannot be replayed.
+ *
+ * Instead of keeping every used nut until it expires, nuts are recorded in blocked Bloom filters, one per time
+ * bucket of the nut's issue time. Each nut sets k bits in a single 64-bit word, so recording it is one
+ * compare-and-set that also tells whether all k bits were already set: there is no lock and threads only ever
+ * contend on the same word. The filters form a ring covering the nut lifetime; once a bucket is older than that it
+ * is dropped and replaced, so memory is about rate * lifetime * bitsPerNut and does not grow with uptime.
+ *
+ * A Bloom filter can claim it has seen a nut it has not (at the configured false-positive rate). Sites that cannot
+ * turn away that fraction of honest logins can plug in a Confirmer, an exact (and typically slower) store. It can
+ * only tell a false positive from a replay if it knows every nut accepted so far, so it records every nut, not just
+ * the ones the filter reports as seen, and its answer is final either way. That brings back a store that grows with
+ * rate * lifetime; without a Confirmer the filters are all there is.
+ */
+public class ReplayDetector {
+    /**
+     * An exact record of the used nuts, consulted for every nut.
+     */
+    public interface Confirmer {
+        /**
+         * Records nut as used, atomically with the check: of several concurrent calls for the same nut only one may
+         * return true. Nuts have to be kept until they are older than the nut lifetime.
+         *
+         * @return true if nut had not been recorded before
+         */
+        boolean markUsed(String nut, long issuedAt);
+    }
+
+    private static class Bucket {
+        final long id;
+        final AtomicLongArray words;
+
+        Bucket(long id, int size) {
+            this.id = id;
+            this.words = new AtomicLongArray(size);
+        }
+    }
+
+    private final long bucketWidth;
+    private final int mask;
+    private final int hashes;
+    private final AtomicReferenceArray<Bucket> ring;
+    private final Confirmer confirmer;
+
+    /**
+     * @param lifetime how long a nut stays valid, in milliseconds (see NutCodec)
+     * @param bucketWidth time span covered by a single filter, in milliseconds
+     * @param loginsPerSecond expected peak rate of logins
+     * @param falsePositiveRate wanted probability of a fresh nut being reported as used, e.g. 1e-6
+     * @param confirmer exact record of the used nuts, or null to reject every positive
+     */
+    public ReplayDetector(long lifetime, long bucketWidth, double loginsPerSecond, double falsePositiveRate,
+            Confirmer confirmer) {
+        if (bucketWidth < 1 || lifetime < bucketWidth) throw new IllegalArgumentException("bad bucket width");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) throw new IllegalArgumentException("bad rate");
+        this.bucketWidth = bucketWidth;
+        this.confirmer = confirmer;
+
+        // one extra bucket, the oldest one is still in use while the newest one fills up
+        int buckets = (int) ((lifetime + bucketWidth - 1) / bucketWidth) + 1;
+        this.ring = new AtomicReferenceArray<Bucket>(buckets);
+
+        // Optimal Bloom filter sizing, plus 30% since confining each nut to a single word is less efficient
+        double perBucket = Math.max(1, loginsPerSecond * bucketWidth / 1000.0);
+        double bitsPerNut = 1.3 * -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.hashes = (int) Math.max(1, Math.min(16, Math.round(bitsPerNut / 1.3 * Math.log(2))));
+        long words = (long) Math.ceil(perBucket * bitsPerNut / 64);
+        if (words > 1 << 28) throw new IllegalArgumentException("filter would be too large");
+        int size = Integer.highestOneBit((int) Math.max(1, words) * 2 - 1);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Records the nut as used.
+     *
+     * @return true if this is the first time nut is used, false if it is a replay (or too old to tell)
+     */
+    public boolean markUsed(Nut nut) {
+        return markUsed(nut.getToken(), nut.getIssuedAt());
+    }
+
+    /**
+     * @see #markUsed(Nut)
+     */
+    public boolean markUsed(String nut, long issuedAt) {
+        long id = Math.max(0, issuedAt) / bucketWidth;
+        Bucket bucket = bucket(id);
+        if (bucket == null) return false;
+
+        long h1 = hash(nut, 0x9E3779B97F4A7C15L);
+        long h2 = hash(nut, 0xC2B2AE3D27D4EB4FL);
+        long bits = 0;
+        for (int i = 0; i < hashes; i++) {
+            bits |= 1L << (h2 & 63);
+            h2 = (h2 >>> 6) | (h2 << 58);
+        }
+
+        AtomicLongArray words = bucket.words;
+        int index = (int) (h1 & mask);
+        while (true) {
+            long word = words.get(index);
+            if ((word & bits) == bits) {
+                // seen before, or a false positive only the confirmer can tell apart
+                return confirmer != null && confirmer.markUsed(nut, issuedAt);
+            }
+            if (words.compareAndSet(index, word, word | bits)) {
+                // new to the filter, the confirmer still has to record it to recognize it later
+                return confirmer == null || confirmer.markUsed(nut, issuedAt);
+            }
+        }
+    }
+
+    /**
+     * @return the filter for bucket id, replacing an expired one if needed, or null if id has already expired
+     */
+    private Bucket bucket(long id) {
+        int slot = (int) (id % ring.length());
+        while (true) {
+            Bucket bucket = ring.get(slot);
+            if (bucket != null && bucket.id == id) return bucket;
+            if (bucket != null && bucket.id > id) return null;
+            Bucket fresh = new Bucket(id, mask + 1);
+            if (ring.compareAndSet(slot, bucket, fresh)) return fresh;
+        }
+    }
+
+    /**
+     * @return memory held by the filters, in bytes
+     */
+    public long getFilterBytes() {
+        return (long) ring.length() * (mask + 1) * 8;
+    }
+
+    public int getHashCount() {
+        return hashes;
+    }
+
+    private static long hash(String s, long seed) {
+        long h = seed;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        // murmur3 finalizer
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,180 @@
+package com.sqrl.authc;
+
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sqrl.SQRLAuthentication;
+import com.sqrl.crypto.Curve25519;
+import com.sqrl.crypto.PublicKeyCache;
+import com.sqrl.utils.URLs;
+
+/**
+ * Server-side verification of SQRLAuthentication submissions.
+ *
+ * Every submission becomes its own task on the executor, so a request carrying a malformed point fails on its own
+ * (decoding rejects it before any scalar multiplication) and never holds up the requests queued behind it. Nothing
+ * is shared between tasks except the public key cache and a few atomic counters, so throughput scales with the
+ * number of threads the executor is allowed to run.
+ *
+ * The verifier records queue depth (submitted but not yet started) and latency from submission to completion.
+ */
+public class SQRLVerifier {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ExecutorService executor;
+    private final PublicKeyCache publicKeyCache;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Creates a verifier on a bounded pool with one thread per available processor.
+     */
+    public SQRLVerifier() {
+        this(boundedExecutor(Runtime.getRuntime().availableProcessors()), Curve25519.getPublicKeyCache());
+    }
+
+    /**
+     * @param executor executor to verify on, see boundedExecutor() and virtualThreadExecutor()
+     * @param publicKeyCache cache for decoded public keys, or null to decode every time
+     */
+    public SQRLVerifier(ExecutorService executor, PublicKeyCache publicKeyCache) {
+        if (executor == null) throw new IllegalArgumentException("executor is null");
+        this.executor = executor;
+        this.publicKeyCache = publicKeyCache;
+    }
+
+    /**
+     * @return a work-stealing ForkJoinPool with the given parallelism when the JVM has one (Java 7+), otherwise a
+     *         fixed thread pool of that size
+     */
+    public static ExecutorService boundedExecutor(int parallelism) {
+        try {
+            Class<?> forkJoinPool = Class.forName("java.util.concurrent.ForkJoinPool");
+            return (ExecutorService) forkJoinPool.getConstructor(int.class).newInstance(parallelism);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(parallelism);
+        }
+    }
+
+    /**
+     * @return a virtual-thread-per-task executor when the JVM supports virtual threads (Java 21+), otherwise null
+     */
+    public static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queues the authentication for verification.
+     *
+     * @return future result of the verification, it never completes exceptionally for bad input
+     */
+    public Future<VerificationResult> submit(final SQRLAuthentication authentication) {
+        final long submitTime = System.nanoTime();
+        submitted.incrementAndGet();
+        return executor.submit(new Callable<VerificationResult>() {
+            @Override
+            public VerificationResult call() {
+                started.incrementAndGet();
+                try {
+                    return verify(authentication);
+                } finally {
+                    recordLatency(System.nanoTime() - submitTime);
+                }
+            }
+        });
+    }
+
+    /**
+     * Verifies the authentication on the calling thread: the realm derived from the signed site URL must match the
+     * realm the public key was presented for, and the signature over the site URL must be valid.
+     */
+    public VerificationResult verify(SQRLAuthentication authentication) {
+        String siteURL = authentication.getSiteURL();
+        byte[] signature = authentication.getSignature();
+        byte[] publicKey = authentication.getPublicKey();
+        // without a realm there is nothing to tie the public key to a site
+        if (authentication.getRealm() == null || siteURL == null || signature == null || publicKey == null) {
+            return VerificationResult.MALFORMED;
+        }
+
+        String realm;
+        try {
+            realm = URLs.getTLD(siteURL);
+        } catch (RuntimeException e) {
+            return VerificationResult.MALFORMED;
+        }
+        if (!authentication.getRealm().equals(realm)) {
+            return VerificationResult.REALM_MISMATCH;
+        }
+
+        try {
+            boolean valid = Curve25519.checkvalid(signature, siteURL.getBytes(UTF8), publicKey, publicKeyCache);
+            return valid ? VerificationResult.VALID : VerificationResult.INVALID_SIGNATURE;
+        } catch (Exception e) {
+            return VerificationResult.MALFORMED;
+        }
+    }
+
+    private void recordLatency(long latency) {
+        completed.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * @return number of submissions that have not started verifying yet
+     */
+    public long getQueueDepth() {
+        return submitted.get() - started.get();
+    }
+
+    /**
+     * @return number of submissions that are queued or being verified
+     */
+    public long getPending() {
+        return submitted.get() - completed.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return mean time from submit() to completion in nanoseconds
+     */
+    public double getAverageLatency() {
+        long count = completed.get();
+        return count == 0 ? 0 : (double) totalLatency.get() / count;
+    }
+
+    /**
+     * @return longest time from submit() to completion in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * Stops accepting submissions, already queued ones are still verified.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
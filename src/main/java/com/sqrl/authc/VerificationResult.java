@@ -0,0 +1,22 @@
+package com.sqrl.authc;
+
+/**
+ * Outcome of verifying a single SQRLAuthentication.
+ */
+public enum VerificationResult {
+    /** The signature over the site URL is valid for the public key */
+    VALID,
+
+    /** The signature does not verify */
+    INVALID_SIGNATURE,
+
+    /** The realm the public key was presented for is not the realm of the signed site URL */
+    REALM_MISMATCH,
+
+    /** Missing fields, wrong lengths, an unparseable site URL or a public key / R that is not a curve point */
+    MALFORMED;
+
+    public boolean isValid() {
+        return this == VALID;
+    }
+}
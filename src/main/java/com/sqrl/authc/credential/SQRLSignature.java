@@ -16,6 +16,7 @@ public class SQRLSignature {
     private byte[] sqrlsig;
 
     public SQRLSignature(String siteUrl, byte[] signature) {
+        this.siteURL = siteUrl;
         this.sqrlsig = signature;
     }
 
@@ -5,21 +5,61 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sqrl.SQRLAuthentication;
 import com.sqrl.SQRLIdentity;
 import com.sqrl.SQRLPasswordParameters;
 import com.sqrl.crypto.Curve25519;
+import com.sqrl.crypto.Ed25519PrivateKey;
 import com.sqrl.crypto.HMACSHA256;
 import com.sqrl.crypto.SCrypt;
 import com.sqrl.crypto.SHA256;
 import com.sqrl.exception.PasswordVerifyException;
 import com.sqrl.exception.SQRLException;
+import com.sqrl.metrics.OperationMetrics;
+import com.sqrl.metrics.StripedCounter;
 import com.sqrl.utils.Bytes;
+import com.sqrl.utils.SecretBuffer;
 import com.sqrl.utils.URLs;
 
 public class SQRLClient {
+    // the crypto primitives each phase is made of are recorded as crypto.* operations
+    private static final OperationMetrics metrics = OperationMetrics.getDefault();
+    private static final OperationMetrics.Operation CREATE_IDENTITY = metrics.operation("client.createIdentity");
+    private static final OperationMetrics.Operation EXPORT_MASTER_KEY = metrics.operation("client.exportMasterKey");
+    private static final OperationMetrics.Operation CHANGE_PASSWORD = metrics.operation("client.changePassword");
+    private static final OperationMetrics.Operation CREATE_AUTHENTICATION = 
+                                                                    metrics.operation("client.createAuthentication");
+    private static final OperationMetrics.Operation CREATE_AUTHENTICATIONS = 
+                                                                    metrics.operation("client.createAuthentications");
+    private static final OperationMetrics.Operation UNLOCK = metrics.operation("client.unlock");
+    private static final StripedCounter PASSWORD_VERIFY_FAILURES = metrics.counter("client.passwordVerifyFailures");
+
+    private static final int SIGNING_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The daemon threads createAuthentications() signs on, started on first use and shared by every call
+     */
+    private static final class SigningPool {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(SIGNING_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "sqrl-sign");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
        
     public static void main(String[] args) throws GeneralSecurityException, SQRLException, IOException {
         
@@ -54,6 +94,7 @@ public class SQRLClient {
      */
     public static SQRLIdentity createIdentity(String identityName, ByteBuffer identityUnlockKey, String password, 
                                               SQRLPasswordParameters difficultyParameters) {
+        long start = System.nanoTime();
         
         // If the user wanted to generate an identityUnlockKey, generate one and pass it back to the caller by 
         // writing the private-key (IdentityUnlockKey) to the ByteBuffer.
@@ -87,8 +128,10 @@ public class SQRLClient {
         Bytes.zero(scryptResult);
         
         // STEP 6: Finally, assemble the SQRLIdentity
-        return new SQRLIdentity(identityName, identityLockKey, identityMaster, 
-                                passwordVerify, passwordSalt, difficultyParameters);
+        SQRLIdentity identity = new SQRLIdentity(identityName, identityLockKey, identityMaster, 
+                                                 passwordVerify, passwordSalt, difficultyParameters);
+        CREATE_IDENTITY.record(start);
+        return identity;
     }
     
     /**
@@ -101,6 +144,7 @@ public class SQRLClient {
      */
     public static SQRLIdentity exportMasterKey(SQRLIdentity identity, String password, 
                                            SQRLPasswordParameters exportedDifficultyParameters) throws SQRLException {
+        long start = System.nanoTime();
         // STEP 1: Scrypt the current password + passwordSalt
         // This is the expensive operation and its parameters should be tuned so
         // that this operation takes between 1-2 seconds to perform.
@@ -111,7 +155,7 @@ public class SQRLClient {
         byte[] passwordCheck = SHA256.digest(scryptResult);
         boolean passwordCheckSuccess = Bytes.arrayEqual(passwordCheck, identity.getPasswordVerify());
         if (!passwordCheckSuccess) {
-            throw new PasswordVerifyException();
+            throw passwordVerifyFailed(EXPORT_MASTER_KEY, start);
         }
         
         // STEP 3: XOR the master identity key from the SQRLIdentity with the
@@ -138,8 +182,11 @@ public class SQRLClient {
         
         // Return a new SQRLIdentity with the new password salt, password verify, password parameters 
         //  and master identity key
-        return new SQRLIdentity(identity.getIdentityName(), identity.getIdentityLockKey(), newMasterIdentityKey, 
-                                newPasswordVerify, newPasswordSalt, exportedDifficultyParameters);
+        SQRLIdentity exported = new SQRLIdentity(identity.getIdentityName(), identity.getIdentityLockKey(), 
+                                                 newMasterIdentityKey, newPasswordVerify, newPasswordSalt, 
+                                                 exportedDifficultyParameters);
+        EXPORT_MASTER_KEY.record(start);
+        return exported;
     }
     
     /**
@@ -169,6 +216,7 @@ public class SQRLClient {
      */
     public static SQRLIdentity changePassword(SQRLIdentity identity, String currentPassword, String newPassword,
                                                          SQRLPasswordParameters newParameters) throws SQRLException {
+        long start = System.nanoTime();
         // STEP 1: Scrypt the current password + passwordSalt
         // This is the expensive operation and its parameters should be tuned so
         // that this operation takes between 1-2 seconds to perform.
@@ -180,7 +228,7 @@ public class SQRLClient {
         byte[] passwordCheck = SHA256.digest(scryptResult);
         boolean passwordCheckSuccess = Bytes.arrayEqual(passwordCheck, identity.getPasswordVerify());
         if (!passwordCheckSuccess) {
-            throw new PasswordVerifyException();
+            throw passwordVerifyFailed(CHANGE_PASSWORD, start);
         }
         
         // STEP 3: XOR the master identity key from the SQRLIdentity with the
@@ -208,48 +256,259 @@ public class SQRLClient {
         // Return a new SQRLIdentity with the new password salt, password verify, and master identity key
         // Note: the password is not permanently changed until this new identity object is written over the
         //       old identity on disk.
-        return new SQRLIdentity(identity.getIdentityName(), identity.getIdentityLockKey(), newMasterIdentityKey, 
-                                newPasswordVerify, newPasswordSalt, newParameters);
+        SQRLIdentity changed = new SQRLIdentity(identity.getIdentityName(), identity.getIdentityLockKey(), 
+                                                newMasterIdentityKey, newPasswordVerify, newPasswordSalt, 
+                                                newParameters);
+        CHANGE_PASSWORD.record(start);
+        return changed;
     }
 
     public static SQRLAuthentication createAuthentication(SQRLIdentity identity, String password, String siteURL) 
                                                                                                 throws SQRLException {
+        long start = System.nanoTime();
+        // STEP 1-3: Scrypt the password, check it and recover the original master key
+        SecretBuffer originalMasterKey = unlockMasterKey(identity, password, CREATE_AUTHENTICATION, start);
+
+        SQRLAuthentication authentication;
+        try {
+            // STEP 4-6: Derive the site keys and sign the site URL
+            authentication = authenticate(originalMasterKey, siteURL);
+        } finally {
+            // STEP 7: We are going to be paranoid and zero-out the original master key so that it doesn't hang 
+            // around in memory, whether signing worked or not
+            originalMasterKey.close();
+        }
+        CREATE_AUTHENTICATION.record(start);
+
+        // Return authentication object containing all the
+        // outputs which are to be sent to the server.
+        return authentication;
+    }
+
+    /**
+     * Creates the authentications for several sites at once, e.g. for a batch of queued logins. The password is
+     * scrypted and checked once and the master key is turned into an HMAC key once, then the site keys are derived
+     * and the site URLs signed in parallel, one thread per processor at most.
+     * 
+     * @param identity
+     * @param password
+     * @param siteURLs
+     * @return one authentication per site URL, in the same order
+     * @throws SQRLException - if password is incorrect
+     */
+    public static List<SQRLAuthentication> createAuthentications(SQRLIdentity identity, String password,
+                                                                 List<String> siteURLs) throws SQRLException {
+        long start = System.nanoTime();
+        // STEP 1-3: Scrypt the password, check it and recover the original master key, once for all sites
+        SecretBuffer originalMasterKey = unlockMasterKey(identity, password, CREATE_AUTHENTICATIONS, start);
+        HMACSHA256.KeyedMac realmMac;
+        try {
+            realmMac = HMACSHA256.keyed(originalMasterKey);
+        } finally {
+            originalMasterKey.close();
+        }
+
+        // STEP 4-6: Derive the site keys and sign the site URLs
+        try {
+            return authenticate(realmMac, siteURLs);
+        } finally {
+            realmMac.close();
+            CREATE_AUTHENTICATIONS.record(start);
+        }
+    }
+
+    /**
+     * Unlocks the identity for a limited time, so that logins to several sites only pay for one scrypt.
+     * 
+     * @param identity
+     * @param password
+     * @param ttl - time in milliseconds after which the session expires, used or not
+     * @return unlocked session, close() it as soon as it is not needed anymore
+     * @throws SQRLException - if password is incorrect
+     */
+    public static SQRLSession unlock(SQRLIdentity identity, String password, long ttl) throws SQRLException {
+        return unlock(identity, password, ttl, ttl);
+    }
+
+    /**
+     * Unlocks the identity for a limited time, so that logins to several sites only pay for one scrypt.
+     * 
+     * @param identity
+     * @param password
+     * @param idleTimeout - time in milliseconds without a login after which the session expires
+     * @param absoluteTimeout - time in milliseconds after which the session expires, used or not
+     * @return unlocked session, close() it as soon as it is not needed anymore
+     * @throws SQRLException - if password is incorrect
+     */
+    public static SQRLSession unlock(SQRLIdentity identity, String password, long idleTimeout, long absoluteTimeout)
+                                                                                                throws SQRLException {
+        long start = System.nanoTime();
+        SecretBuffer originalMasterKey = unlockMasterKey(identity, password, UNLOCK, start);
+        SQRLSession session;
+        try {
+            session = new SQRLSession(originalMasterKey, idleTimeout, absoluteTimeout);
+        } finally {
+            // the session keeps its own masked copy
+            originalMasterKey.close();
+        }
+        UNLOCK.record(start);
+        return session;
+    }
+
+    /**
+     * @param operation - the operation unlocking, a wrong password counts as its failure
+     * @param start - System.nanoTime() when the operation started
+     * @return the original master key of the identity, close it when done
+     * @throws PasswordVerifyException - if password is incorrect
+     */
+    private static SecretBuffer unlockMasterKey(SQRLIdentity identity, String password, 
+                                                OperationMetrics.Operation operation, long start) throws SQRLException {
         // STEP 1: Scrypt the password + passwordSalt
         // This is the expensive operation and its parameters should be tuned so
         // that this operation takes between 1-2 seconds to perform.
         byte[] scryptResult = SCrypt.scrypt(password, identity.getPasswordSalt(), identity.getPasswordParameters());
+        try {
+            // STEP 2: Check the sha256 hash of the result from STEP 1 verse the
+            // stored passwordVerify value.
+            byte[] passwordCheck = SHA256.digest(scryptResult);
+            boolean passwordCheckSuccess = Bytes.arrayEqual(passwordCheck, identity.getPasswordVerify());
+            if (!passwordCheckSuccess) {
+                throw passwordVerifyFailed(operation, start);
+            }
 
-        // STEP 2: Check the sha256 hash of the result from STEP 1 verse the
-        // stored passwordVerify value.
-        byte[] passwordCheck = SHA256.digest(scryptResult);
-        boolean passwordCheckSuccess = Bytes.arrayEqual(passwordCheck, identity.getPasswordVerify());
-        if (!passwordCheckSuccess) {
-            throw new PasswordVerifyException();
+            // STEP 3: XOR the master identity key from the SQRLIdentity with the
+            // result from STEP 1 to create the original master key
+            SecretBuffer originalMasterKey = SecretBuffer.allocate(32);
+            try {
+                return originalMasterKey.xor(identity.getMasterIdentityKey(), scryptResult);
+            } catch (RuntimeException e) {
+                originalMasterKey.close();
+                throw e;
+            }
+        } finally {
+            Bytes.zero(scryptResult);
         }
+    }
 
-        // STEP 3: XOR the master identity key from the SQRLIdentity with the
-        // result from STEP 1 to create the original master key
-        byte[] originalMasterKey = Bytes.xor(identity.getMasterIdentityKey(), scryptResult);
-
+    /**
+     * Derives the site key pair from the original master key and signs the site URL. Does not touch
+     * originalMasterKey, closing it is up to the caller. The site private key only ever exists off-heap.
+     */
+    static SQRLAuthentication authenticate(SecretBuffer originalMasterKey, String siteURL) {
         // STEP 4: HMACSHA-256 the master key result from STEP 3: with the site TLD
         String sqrlRealm = URLs.getTLD(siteURL);
-        byte[] privateKey = HMACSHA256.mac(originalMasterKey, sqrlRealm);
+        SecretBuffer privateKey = SecretBuffer.allocate(32);
+        try {
+            HMACSHA256.mac(originalMasterKey, sqrlRealm, privateKey);
+            return sign(privateKey, sqrlRealm, siteURL);
+        } finally {
+            privateKey.close();
+        }
+    }
+
+    /**
+     * authenticate() for every site URL, spread over up to one thread per processor. Once it returns or throws, none
+     * of its tasks use realmMac anymore, so the caller can close it.
+     */
+    private static List<SQRLAuthentication> authenticate(final HMACSHA256.KeyedMac realmMac, List<String> siteURLs) {
+        List<SQRLAuthentication> authentications = new ArrayList<SQRLAuthentication>(siteURLs.size());
+        if (siteURLs.size() <= 1 || SIGNING_THREADS <= 1) {
+            for (String siteURL : siteURLs) {
+                authentications.add(authenticate(realmMac, siteURL));
+            }
+            return authentications;
+        }
+
+        // set when a site fails, so that the tasks not yet started skip their site
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        List<Future<SQRLAuthentication>> futures = new ArrayList<Future<SQRLAuthentication>>(siteURLs.size());
+        try {
+            for (final String siteURL : siteURLs) {
+                futures.add(SigningPool.EXECUTOR.submit(new Callable<SQRLAuthentication>() {
+                    @Override
+                    public SQRLAuthentication call() {
+                        return abandoned.get() ? null : authenticate(realmMac, siteURL);
+                    }
+                }));
+            }
+            for (Future<SQRLAuthentication> future : futures) {
+                authentications.add(future.get());
+            }
+            return authentications;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while signing", e);
+        } catch (ExecutionException e) {
+            // e.g. a site URL without a domain
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            abandoned.set(true);
+            awaitAll(futures);
+        }
+    }
+
+    /**
+     * Waits for every future to complete, whatever its outcome. An interrupt does not stop the wait, the tasks are
+     * short, and is passed on afterwards.
+     */
+    private static void awaitAll(List<? extends Future<?>> futures) {
+        boolean interrupted = Thread.interrupted();
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static SQRLAuthentication authenticate(HMACSHA256.KeyedMac realmMac, String siteURL) {
+        // STEP 4: HMACSHA-256 the master key with the site TLD, starting from the precomputed key state
+        String sqrlRealm = URLs.getTLD(siteURL);
+        SecretBuffer privateKey = SecretBuffer.allocate(32);
+        try {
+            realmMac.mac(sqrlRealm, privateKey);
+            return sign(privateKey, sqrlRealm, siteURL);
+        } finally {
+            privateKey.close();
+        }
+    }
 
+    /**
+     * STEP 5-6 of authenticate(), closing privateKey is up to the caller
+     */
+    private static SQRLAuthentication sign(SecretBuffer privateKey, String sqrlRealm, String siteURL) {
         // STEP 5: Synthesize a public key by using the result from STEP 4
-        byte[] publicKey = Curve25519.publickey(privateKey);
+        Ed25519PrivateKey siteKey = Ed25519PrivateKey.fromSeed(privateKey);
+        try {
+            byte[] publicKey = siteKey.getPublicKey();
 
-        // STEP 6: Sign the entire site URL with the private key from STEP 4.
-        byte[] signature = Curve25519.signature(siteURL.getBytes(Charset.forName("UTF-8")), privateKey, publicKey);
-        
-        // STEP 7: We are going to be paranoid and zero-out the original master key, private key, and scrypt result
-        // so that they don't hang around in memory waiting to be garbage collected.
-        Bytes.zero(originalMasterKey);
-        Bytes.zero(privateKey);
-        Bytes.zero(scryptResult);
+            // STEP 6: Sign the entire site URL with the private key from STEP 4.
+            byte[] signature = siteKey.sign(siteURL.getBytes(Charset.forName("UTF-8")));
+            return new SQRLAuthentication(sqrlRealm, siteURL, signature, publicKey);
+        } finally {
+            siteKey.close();
+        }
+    }
 
-        // Return authentication object containing all the
-        // outputs which are to be sent to the server.
-        return new SQRLAuthentication(sqrlRealm, siteURL, signature, publicKey);
+    /**
+     * Counts a wrong password against operation
+     * 
+     * @return the exception to throw
+     */
+    private static PasswordVerifyException passwordVerifyFailed(OperationMetrics.Operation operation, long start) {
+        PASSWORD_VERIFY_FAILURES.increment();
+        operation.fail();
+        operation.record(start);
+        return new PasswordVerifyException();
     }
 
     private static SecureRandom rand = new SecureRandom();
@@ -0,0 +1,108 @@
+package com.sqrl.client;
+
+import java.security.SecureRandom;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.sqrl.SQRLAuthentication;
+import com.sqrl.exception.SQRLException;
+import com.sqrl.exception.SessionExpiredException;
+import com.sqrl.utils.Bytes;
+import com.sqrl.utils.SecretBuffer;
+
+/**
+ * An unlocked SQRLIdentity, as returned by SQRLClient.unlock().
+ * 
+ * The session holds the original master key so that logging in to a site costs an HMAC and a signature instead of
+ * another scrypt. The key is kept off-heap in SecretBuffers, XOR-masked with a random pad, and only recombined for
+ * the duration of a single createAuthentication() call. It is zeroed when the session is closed, has not been used
+ * for idleTimeout, or is older than absoluteTimeout, whichever comes first. Expiry is enforced by a background timer
+ * as well, so an abandoned session does not keep the key in memory.
+ */
+public class SQRLSession {
+    private static final Timer expiryTimer = new Timer("SQRLSession expiry", true);
+
+    private final SecretBuffer maskedKey;
+    private final SecretBuffer mask;
+    private final long idleTimeout;
+    private final long expiresAt;
+    private long lastUsed;
+    private boolean closed;
+
+    SQRLSession(SecretBuffer originalMasterKey, long idleTimeout, long absoluteTimeout) {
+        byte[] pad = new byte[originalMasterKey.length()];
+        new SecureRandom().nextBytes(pad);
+        this.mask = SecretBuffer.allocate(pad.length).put(pad);
+        Bytes.zero(pad);
+        this.maskedKey = SecretBuffer.allocate(pad.length).xor(originalMasterKey, mask);
+        this.idleTimeout = idleTimeout;
+        this.lastUsed = System.currentTimeMillis();
+        this.expiresAt = lastUsed + absoluteTimeout;
+        scheduleExpiry();
+    }
+
+    /**
+     * Creates the authentication for siteURL, exactly like SQRLClient.createAuthentication() but without the scrypt.
+     * 
+     * @param siteURL
+     * @return authentication object to be sent to the server
+     * @throws SessionExpiredException - if the session has expired or was closed
+     */
+    public SQRLAuthentication createAuthentication(String siteURL) throws SQRLException {
+        SecretBuffer originalMasterKey;
+        synchronized (this) {
+            if (isExpired(System.currentTimeMillis())) {
+                close();
+                throw new SessionExpiredException();
+            }
+            lastUsed = System.currentTimeMillis();
+            originalMasterKey = SecretBuffer.allocate(maskedKey.length()).xor(maskedKey, mask);
+        }
+        try {
+            return SQRLClient.authenticate(originalMasterKey, siteURL);
+        } finally {
+            // Be paranoid and blank out the unmasked key as soon as the signature is done
+            originalMasterKey.close();
+        }
+    }
+
+    /**
+     * @return true if the session can still be used
+     */
+    public synchronized boolean isOpen() {
+        return !isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Zeroes the master key, after which the session cannot be used anymore.
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            maskedKey.close();
+            mask.close();
+        }
+    }
+
+    private boolean isExpired(long now) {
+        return closed || now >= expiresAt || now - lastUsed >= idleTimeout;
+    }
+
+    private void scheduleExpiry() {
+        long deadline = Math.min(expiresAt, lastUsed + idleTimeout);
+        expiryTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (SQRLSession.this) {
+                    if (closed) return;
+                    if (isExpired(System.currentTimeMillis())) {
+                        close();
+                    } else {
+                        // used since, check again at the new idle deadline
+                        scheduleExpiry();
+                    }
+                }
+            }
+        }, Math.max(0, deadline - System.currentTimeMillis()));
+    }
+}
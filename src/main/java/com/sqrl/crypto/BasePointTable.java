@@ -0,0 +1,204 @@
+package com.sqrl.crypto;
+
+/**
+ * Precomputed multiples of the Ed25519 base point B, used for every fixed-base scalar multiplication.
+ *
+ * TABLE[i][j] holds (j+1)*16^i*B for i in 0..63 and j in 0..7 as an affine point in {y+x, y-x, 2*d*x*y} form. A
+ * scalar is recoded into 64 signed radix-16 digits e[i] in [-8,8], so that a*B = sum(e[i]*16^i*B) takes 64 mixed
+ * additions and no doublings at all.
+ *
+ * The table (about 60KB) is built the first time this class is used. Class initialization publishes it safely to
+ * every thread and nothing writes to it afterwards.
+ */
+final class BasePointTable {
+    static final int[][][][] TABLE = build();
+
+    /**
+     * ODD[j] = (2j+1)*B in the same {y+x, y-x, 2*d*x*y} form, for variable-time sliding window multiplication
+     */
+    static final int[][][] ODD = buildOdd();
+
+    private BasePointTable() {
+    }
+
+    /**
+     * Scratch space for scalarmult(), kept by the caller so that a multiplication allocates nothing
+     */
+    static final class Scratch {
+        final int[] e = new int[64];
+        final int[][] t = Field25519.create(6);
+        final int[][] entry = Field25519.create(3);
+        final int[][] minus = Field25519.create(3);
+    }
+
+    private static int[][][][] build() {
+        int count = 64 * 8;
+        int[][][] points = new int[count][][];
+        int[][] t = Field25519.create(6);
+
+        // points[8*i+j] = (j+1)*16^i*B, in extended coordinates
+        int[][] base = Curve25519.newpoint();
+        for (int k = 0; k < 4; k++) {
+            Field25519.copy(base[k], Curve25519.B[k]);
+        }
+        for (int i = 0; i < 64; i++) {
+            for (int j = 0; j < 8; j++) {
+                int[][] P = Curve25519.newpoint();
+                if (j == 0) {
+                    for (int k = 0; k < 4; k++) {
+                        Field25519.copy(P[k], base[k]);
+                    }
+                } else {
+                    Curve25519.edwards(P, points[8 * i + j - 1], base, t);
+                }
+                points[8 * i + j] = P;
+            }
+            for (int k = 0; k < 4; k++) {
+                Curve25519.doubling(base, base, t);
+            }
+        }
+
+        // Normalize all of them with a single inversion (Montgomery's simultaneous inversion trick)
+        int[][] acc = Field25519.create(count);
+        Field25519.copy(acc[0], points[0][2]);
+        for (int k = 1; k < count; k++) {
+            Field25519.mul(acc[k], acc[k - 1], points[k][2]);
+        }
+        int[] inv = Field25519.create();
+        int[] zinv = Field25519.create();
+        int[] x = Field25519.create();
+        int[] y = Field25519.create();
+        Field25519.invert(inv, acc[count - 1], t);
+
+        int[][][][] table = new int[64][8][][];
+        for (int k = count - 1; k >= 0; k--) {
+            int[][] P = points[k];
+            if (k > 0) {
+                Field25519.mul(zinv, inv, acc[k - 1]);
+                Field25519.mul(inv, inv, P[2]);
+            } else {
+                Field25519.copy(zinv, inv);
+            }
+            table[k / 8][k % 8] = entry(P, zinv, x, y);
+        }
+        return table;
+    }
+
+    private static int[][][] buildOdd() {
+        int[][] t = Field25519.create(6);
+        int[][] B2 = Curve25519.newpoint();
+        Curve25519.doubling(B2, Curve25519.B, t);
+        int[][] P = Curve25519.newpoint();
+        Curve25519.copy(P, Curve25519.B);
+        int[] zinv = Field25519.create();
+        int[] x = Field25519.create();
+        int[] y = Field25519.create();
+
+        int[][][] odd = new int[8][][];
+        for (int j = 0; j < 8; j++) {
+            if (j > 0) {
+                Curve25519.edwards(P, P, B2, t);
+            }
+            Field25519.invert(zinv, P[2], t);
+            odd[j] = entry(P, zinv, x, y);
+        }
+        return odd;
+    }
+
+    /**
+     * @return P as {y+x, y-x, 2*d*x*y}, given zinv = 1/Z. x and y are scratch elements.
+     */
+    private static int[][] entry(int[][] P, int[] zinv, int[] x, int[] y) {
+        Field25519.mul(x, P[0], zinv);
+        Field25519.mul(y, P[1], zinv);
+        int[][] entry = Field25519.create(3);
+        Field25519.add(entry[0], y, x);
+        Field25519.sub(entry[1], y, x);
+        Field25519.mul(entry[2], x, y);
+        Field25519.mul(entry[2], entry[2], Curve25519.fd2);
+        for (int f = 0; f < 3; f++) {
+            Field25519.reduce(entry[f], entry[f]);
+        }
+        return entry;
+    }
+
+    /**
+     * scalarmult() with scratch of its own, for callers off the hot path
+     */
+    static void scalarmult(int[][] R, byte[] a) {
+        scalarmult(R, a, new Scratch());
+    }
+
+    /**
+     * R = a*B, where a is a 32-byte little-endian scalar with a[31] <= 127. The sequence of operations and the
+     * memory accessed do not depend on the value of a. s is wiped afterwards.
+     */
+    static void scalarmult(int[][] R, byte[] a, Scratch s) {
+        int[] e = s.e;
+        for (int i = 0; i < 32; i++) {
+            e[2 * i] = a[i] & 15;
+            e[2 * i + 1] = (a[i] >> 4) & 15;
+        }
+        // e[0..62] in [0,15], e[63] in [0,7], recode every digit into [-8,7], e[63] ends up in [0,8]
+        int carry = 0;
+        for (int i = 0; i < 63; i++) {
+            e[i] += carry;
+            carry = (e[i] + 8) >> 4;
+            e[i] -= carry << 4;
+        }
+        e[63] += carry;
+
+        int[][] t = s.t;
+        int[][] entry = s.entry;
+        int[][] minus = s.minus;
+        Curve25519.identity(R);
+        for (int i = 0; i < 64; i++) {
+            select(entry, minus, TABLE[i], e[i]);
+            Curve25519.madd(R, R, entry, t);
+        }
+
+        // be paranoid, the digits and the selected entries are as secret as the scalar itself
+        for (int i = 0; i < 64; i++) {
+            e[i] = 0;
+        }
+        for (int f = 0; f < 3; f++) {
+            Field25519.zero(entry[f]);
+            Field25519.zero(minus[f]);
+        }
+        for (int f = 0; f < t.length; f++) {
+            Field25519.zero(t[f]);
+        }
+    }
+
+    /**
+     * entry = digit*row[0], where row[j] = (j+1)*P and digit is in [-8,8], selected in constant time.
+     */
+    private static void select(int[][] entry, int[][] minus, int[][][] row, int digit) {
+        int negative = (digit >> 31) & 1;
+        int abs = digit - ((-negative & digit) << 1);
+
+        Field25519.one(entry[0]);
+        Field25519.one(entry[1]);
+        Field25519.zero(entry[2]);
+        for (int j = 0; j < 8; j++) {
+            int equal = (((abs ^ (j + 1)) - 1) >>> 31);
+            for (int f = 0; f < 3; f++) {
+                Field25519.cmov(entry[f], row[j][f], equal);
+            }
+        }
+
+        negate(minus, entry);
+        for (int f = 0; f < 3; f++) {
+            Field25519.cmov(entry[f], minus[f], negative);
+        }
+    }
+
+    /**
+     * R = -Q for an entry in {y+x, y-x, 2*d*x*y} form. -(x,y) = (-x,y), so y+x and y-x swap places.
+     */
+    static void negate(int[][] R, int[][] Q) {
+        Field25519.copy(R[0], Q[1]);
+        Field25519.copy(R[1], Q[0]);
+        Field25519.neg(R[2], Q[2]);
+    }
+}
@@ -0,0 +1,52 @@
+package com.sqrl.crypto;
+
+/**
+ * Lets a caller give up on a long scrypt computation, either explicitly with cancel() or by a deadline.
+ * 
+ * A token can be shared by several calls and cancelled from any thread; the computation notices within a few
+ * hundred ROMix blocks.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled;
+    private final long deadline;
+    private final boolean hasDeadline;
+
+    /**
+     * A token without a deadline, that only stops work when cancelled
+     */
+    public CancellationToken() {
+        this.deadline = 0;
+        this.hasDeadline = false;
+    }
+
+    private CancellationToken(long deadline) {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * @param timeout milliseconds from now after which the work is abandoned
+     */
+    public static CancellationToken withTimeout(long timeout) {
+        return new CancellationToken(System.nanoTime() + timeout * 1000000L);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isExpired() {
+        return hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @return nanoseconds left until the deadline, Long.MAX_VALUE without one
+     */
+    public long remainingNanos() {
+        return hasDeadline ? Math.max(0, deadline - System.nanoTime()) : Long.MAX_VALUE;
+    }
+}
@@ -1,10 +1,19 @@
 package com.sqrl.crypto;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.List;
+
+import com.sqrl.metrics.OperationMetrics;
+import com.sqrl.utils.SecretBuffer;
 
 /* Written by k3d3
  * Released to the public domain
@@ -13,173 +22,589 @@ import java.util.Arrays;
 public class Curve25519 {
 	static final int b = 256;
 	static final BigInteger q = new BigInteger("57896044618658097711785492504343953926634992332820282019728792003956564819949");
-	static final BigInteger qm2 = new BigInteger("57896044618658097711785492504343953926634992332820282019728792003956564819947");
-	static final BigInteger qp3 = new BigInteger("57896044618658097711785492504343953926634992332820282019728792003956564819952");
 	static final BigInteger l = new BigInteger("7237005577332262213973186563042994240857116359379907606001950938285454250989");
 	static final BigInteger d = new BigInteger("-4513249062541557337682894930092624173785641285191125241628941591882900924598840740");
 	static final BigInteger I = new BigInteger("19681161376707505956807079304988542015446066515923890162744021073123829784752");
 	static final BigInteger By = new BigInteger("46316835694926478169428394003475163141307993866256225615783033603165251855960");
 	static final BigInteger Bx = new BigInteger("15112221349535400772501151409588531511454012693041857206046113283949847762202");
-	static final BigInteger[] B = {Bx.mod(q),By.mod(q)};
 	static final BigInteger un = new BigInteger("57896044618658097711785492504343953926634992332820282019728792003956564819967");
 	
-	static byte[] H(byte[] m) {
-		MessageDigest md;
+	private static final ThreadLocal<MessageDigest> sha512 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			return newSha512();
+		}
+	};
+	
+	static MessageDigest newSha512() {
 		try {
-			md = MessageDigest.getInstance("SHA-512");
-			md.reset();
-			return md.digest(m);
+			return MessageDigest.getInstance("SHA-512");
 		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
+			throw new IllegalStateException(e);
 		}
-		return null;
 	}
 	
-	static BigInteger expmod(BigInteger b, BigInteger e, BigInteger m) {
-		//System.out.println("expmod open with b=" + b + " e=" + e + " m=" + m);
-		if (e.equals(BigInteger.ZERO)) {
-			//System.out.println("expmod close with 1z");
-			return BigInteger.ONE;
-		}
-		BigInteger t = expmod(b, e.divide(BigInteger.valueOf(2)), m).pow(2).mod(m);
-		//System.out.println("expmod 1/2 t="+t+" e="+e+" testbit="+(e.testBit(0)?1:0));
-		if (e.testBit(0)) {
-			t = t.multiply(b).mod(m);
+	static byte[] H(byte[] m) {
+		MessageDigest md = sha512.get();
+		md.reset();
+		return md.digest(m);
+	}
+	
+	/*
+	 * Field elements are Field25519 limb arrays. Points are held in extended twisted Edwards coordinates
+	 * {X,Y,Z,T} with x = X/Z, y = Y/Z and x*y = T/Z, see Hisil, Wong, Carter, Dawson "Twisted Edwards Curves
+	 * Revisited" (2008). Neither the addition nor the doubling formula needs an inversion, the only one is done
+	 * in encodepoint(). Callers hand in the scratch elements, so the group law itself never allocates.
+	 */
+	static final int[] fd = fe(d);
+	static final int[] fd2 = fe(d.shiftLeft(1));
+	static final int[] fI = fe(I);
+	static final int[][] B = point(Bx, By);
+	
+	static int[] fe(BigInteger x) {
+		int[] h = Field25519.create();
+		Field25519.frombytes(h, encodeint(x.mod(q)), 0);
+		return h;
+	}
+	
+	static int[][] point(BigInteger x, BigInteger y) {
+		return new int[][]{fe(x), fe(y), fe(BigInteger.ONE), fe(x.multiply(y))};
+	}
+	
+	static int[][] newpoint() {
+		return Field25519.create(4);
+	}
+	
+	static void identity(int[][] P) {
+		Field25519.zero(P[0]);
+		Field25519.one(P[1]);
+		Field25519.one(P[2]);
+		Field25519.zero(P[3]);
+	}
+	
+	static void copy(int[][] R, int[][] P) {
+		for (int i=0;i<4;i++) {
+			Field25519.copy(R[i], P[i]);
 		}
-		//System.out.println("expmod close with " + t);
-		return t;
 	}
 	
-	static BigInteger inv(BigInteger x) {
-		//System.out.println("inv open with " + x);
-		//System.out.println("inv close with " + expmod(x, qm2, q));
-		return expmod(x, qm2, q);
+	/**
+	 * R = -P, which is (-X:Y:Z:-T)
+	 */
+	static void negate(int[][] R, int[][] P) {
+		Field25519.neg(R[0], P[0]);
+		Field25519.copy(R[1], P[1]);
+		Field25519.copy(R[2], P[2]);
+		Field25519.neg(R[3], P[3]);
 	}
 	
-	static BigInteger xrecover(BigInteger y) {
-		BigInteger y2 = y.multiply(y);
-		BigInteger xx = (y2.subtract(BigInteger.ONE)).multiply(inv(d.multiply(y2).add(BigInteger.ONE)));
-		BigInteger x = expmod(xx, qp3.divide(BigInteger.valueOf(8)), q);
-		if (!x.multiply(x).subtract(xx).mod(q).equals(BigInteger.ZERO)) x = (x.multiply(I).mod(q));
-		if (!x.mod(BigInteger.valueOf(2)).equals(BigInteger.ZERO)) x = q.subtract(x);
-		return x;
+	/**
+	 * R = P + Q. R may alias P or Q, t must hold at least 6 scratch elements.
+	 */
+	static void edwards(int[][] R, int[][] P, int[][] Q, int[][] t) {
+		// add-2008-hwcd-3 with a = -1, unified so it may also be used to double
+		int[] t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3], t4 = t[4], t5 = t[5];
+		Field25519.sub(t4, P[1], P[0]);
+		Field25519.sub(t5, Q[1], Q[0]);
+		Field25519.mul(t0, t4, t5);		// A = (Y1-X1)*(Y2-X2)
+		Field25519.add(t4, P[1], P[0]);
+		Field25519.add(t5, Q[1], Q[0]);
+		Field25519.mul(t1, t4, t5);		// B = (Y1+X1)*(Y2+X2)
+		Field25519.mul(t2, P[3], Q[3]);
+		Field25519.mul(t2, t2, fd2);		// C = T1*2d*T2
+		Field25519.mul(t3, P[2], Q[2]);
+		Field25519.add(t3, t3, t3);		// D = Z1*2*Z2
+		Field25519.sub(t4, t1, t0);		// E = B-A
+		Field25519.sub(t5, t3, t2);		// F = D-C
+		Field25519.add(t2, t3, t2);		// G = D+C
+		Field25519.add(t0, t1, t0);		// H = B+A
+		Field25519.mul(R[0], t4, t5);
+		Field25519.mul(R[1], t2, t0);
+		Field25519.mul(R[2], t5, t2);
+		Field25519.mul(R[3], t4, t0);
 	}
 	
-	static BigInteger[] edwards(BigInteger[] P, BigInteger[] Q) {
-		BigInteger x1 = P[0];
-		BigInteger y1 = P[1];
-		BigInteger x2 = Q[0];
-		BigInteger y2 = Q[1];
-		BigInteger dtemp = d.multiply(x1).multiply(x2).multiply(y1).multiply(y2);
-		//System.out.println("edwards open with "+x1+","+x2+" "+y1+","+y2+" d="+d+" dtemp="+dtemp);
-		BigInteger x3 = ((x1.multiply(y2)).add((x2.multiply(y1)))).multiply(inv(BigInteger.ONE.add(dtemp)));
-		//System.out.println("edwards 1/2 with "+x1+","+x2+" "+y1+","+y2+" d="+d+" dtemp="+dtemp);
-		BigInteger y3 = ((y1.multiply(y2)).add((x1.multiply(x2)))).multiply(inv(BigInteger.ONE.subtract(dtemp)));
-		//System.out.println("edwards 2/2 with "+x1+","+x2+" "+y1+","+y2+" d="+d+" dtemp="+dtemp);
-		//System.out.println("edwards close with "+x3.mod(q)+","+y3.mod(q));
-		return new BigInteger[]{x3.mod(q), y3.mod(q)};
+	/**
+	 * R = P + Q where Q is an affine point in {y+x, y-x, 2*d*x*y} form, as stored in BasePointTable. R may alias P,
+	 * t must hold at least 6 scratch elements.
+	 */
+	static void madd(int[][] R, int[][] P, int[][] Q, int[][] t) {
+		// madd-2008-hwcd-3 with a = -1, i.e. add-2008-hwcd-3 with Z2 = 1
+		int[] t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3], t4 = t[4], t5 = t[5];
+		Field25519.sub(t4, P[1], P[0]);
+		Field25519.mul(t0, t4, Q[1]);		// A = (Y1-X1)*(y2-x2)
+		Field25519.add(t4, P[1], P[0]);
+		Field25519.mul(t1, t4, Q[0]);		// B = (Y1+X1)*(y2+x2)
+		Field25519.mul(t2, P[3], Q[2]);		// C = T1*2d*x2*y2
+		Field25519.add(t3, P[2], P[2]);		// D = 2*Z1
+		Field25519.sub(t4, t1, t0);		// E = B-A
+		Field25519.sub(t5, t3, t2);		// F = D-C
+		Field25519.add(t2, t3, t2);		// G = D+C
+		Field25519.add(t0, t1, t0);		// H = B+A
+		Field25519.mul(R[0], t4, t5);
+		Field25519.mul(R[1], t2, t0);
+		Field25519.mul(R[2], t5, t2);
+		Field25519.mul(R[3], t4, t0);
 	}
 	
-	static BigInteger[] scalarmult(BigInteger[] P, BigInteger e) {
-		//System.out.println("scalarmult open with e = " + e);
-		if (e.equals(BigInteger.ZERO)) {
-			//System.out.println("scalarmult close with Q = 0,1");
-			return new BigInteger[]{BigInteger.ZERO, BigInteger.ONE};
+	/**
+	 * R = 2P. R may alias P, t must hold at least 6 scratch elements.
+	 */
+	static void doubling(int[][] R, int[][] P, int[][] t) {
+		// dbl-2008-hwcd with a = -1, T is not needed as input
+		int[] t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3], t4 = t[4], t5 = t[5];
+		Field25519.sq(t0, P[0]);		// A = X1^2
+		Field25519.sq(t1, P[1]);		// B = Y1^2
+		Field25519.sq2(t2, P[2]);		// C = 2*Z1^2
+		Field25519.add(t3, P[0], P[1]);
+		Field25519.sq(t3, t3);
+		Field25519.sub(t3, t3, t0);
+		Field25519.sub(t3, t3, t1);		// E = (X1+Y1)^2-A-B
+		Field25519.sub(t4, t1, t0);		// G = B-A
+		Field25519.sub(t5, t4, t2);		// F = G-C
+		Field25519.add(t0, t0, t1);
+		Field25519.neg(t0, t0);			// H = -A-B
+		Field25519.mul(R[0], t3, t5);
+		Field25519.mul(R[1], t4, t0);
+		Field25519.mul(R[2], t5, t4);
+		Field25519.mul(R[3], t3, t0);
+	}
+	
+	/**
+	 * Fixed-base multiplication e*B using the precomputed BasePointTable.
+	 */
+	static int[][] scalarmultbase(BigInteger e) {
+		int[][] R = newpoint();
+		BasePointTable.scalarmult(R, encodeint(e.mod(l)));
+		return R;
+	}
+	
+	/**
+	 * @return the odd multiples P, 3P, 5P, ..., (2^(width-1)-1)P used by doublescalarmultbase()
+	 */
+	static int[][][] oddmultiples(int[][] P, int width) {
+		int[][][] Pi = new int[1 << (width-2)][][];
+		for (int j=0;j<Pi.length;j++) {
+			Pi[j] = newpoint();
 		}
-		BigInteger[] Q = scalarmult(P, e.divide(BigInteger.valueOf(2)));
-		//System.out.println("scalarmult asQ = " + Q[0] + "," + Q[1]);
-		Q = edwards(Q, Q);
-		//System.out.println("scalarmult aeQ = " + Q[0] + "," + Q[1] + " e="+e+" testbit="+(e.testBit(0)?1:0));
-		if (e.testBit(0)) Q = edwards(Q, P);
-		//System.out.println("scalarmult close with Q = " + Q[0] + "," + Q[1]);
-		return Q;
+		oddmultiples(Pi, P, newpoint(), Field25519.create(6));
+		return Pi;
+	}
+	
+	/**
+	 * Fills the points of Pi with P, 3P, 5P, ..., P2 and t are scratch
+	 */
+	static void oddmultiples(int[][][] Pi, int[][] P, int[][] P2, int[][] t) {
+		doubling(P2, P, t);
+		copy(Pi[0], P);
+		for (int j=1;j<Pi.length;j++) {
+			edwards(Pi[j], Pi[j-1], P2, t);
+		}
+	}
+	
+	/**
+	 * Recodes a 256-bit little-endian scalar into sliding window NAF digits r[0..256): every digit is 0 or odd and
+	 * in [-(2^(width-1)-1), 2^(width-1)-1], and any two nonzero digits are at least width positions apart.
+	 */
+	static void slide(byte[] r, byte[] a, int width) {
+		int max = (1 << (width-1)) - 1;
+		for (int i=0;i<b;i++) {
+			r[i] = (byte) bit(a, i);
+		}
+		for (int i=0;i<b;i++) {
+			if (r[i] == 0) continue;
+			for (int j=1;j<=width+1 && i+j<b;j++) {
+				if (r[i+j] == 0) continue;
+				if (r[i] + (r[i+j] << j) <= max) {
+					r[i] += r[i+j] << j;
+					r[i+j] = 0;
+				} else if (r[i] - (r[i+j] << j) >= -max) {
+					r[i] -= r[i+j] << j;
+					for (int k=i+j;k<b;k++) {
+						if (r[k] == 0) {
+							r[k] = 1;
+							break;
+						}
+						r[k] = 0;
+					}
+				} else {
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * R = [a]P + [c]B with Straus-Shamir interleaving: both scalars are recoded with slide() and share a single
+	 * chain of doublings. Pi holds the odd multiples of P from oddmultiples(), its length determines the window
+	 * width used for a. Variable time, so only for public scalars (signature verification).
+	 */
+	static void doublescalarmultbase(int[][] R, int[][][] Pi, byte[] a, byte[] c, VerifyScratch v) {
+		byte[] aslide = v.aslide;
+		byte[] cslide = v.cslide;
+		slide(aslide, a, Integer.numberOfTrailingZeros(Pi.length) + 2);
+		slide(cslide, c, 5);
+		int[][] t = v.t;
+		int[][] neg = v.neg;
+		int[][] negB = v.negB;
+		identity(R);
+		
+		int i = b-1;
+		while (i >= 0 && aslide[i] == 0 && cslide[i] == 0) i--;
+		for (;i>=0;i--) {
+			doubling(R, R, t);
+			if (aslide[i] > 0) {
+				edwards(R, R, Pi[aslide[i]/2], t);
+			} else if (aslide[i] < 0) {
+				negate(neg, Pi[-aslide[i]/2]);
+				edwards(R, R, neg, t);
+			}
+			if (cslide[i] > 0) {
+				madd(R, R, BasePointTable.ODD[cslide[i]/2], t);
+			} else if (cslide[i] < 0) {
+				BasePointTable.negate(negB, BasePointTable.ODD[-cslide[i]/2]);
+				madd(R, R, negB, t);
+			}
+		}
+	}
+	
+	/**
+	 * t is 2 scratch elements
+	 */
+	static boolean isidentity(int[][] P, int[][] t) {
+		// (0:1) projectively, X == 0 and Y == Z
+		if (!Field25519.iszero(P[0], t[0])) return false;
+		Field25519.sub(t[0], P[1], P[2]);
+		return Field25519.iszero(t[0], t[1]);
 	}
 	
 	static byte[] encodeint(BigInteger y) {
 		byte[] in = y.toByteArray();
-		byte[] out = new byte[in.length];
-		for (int i=0;i<in.length;i++) {
+		byte[] out = new byte[b/8];
+		for (int i=0;i<in.length && i<out.length;i++) {
 			out[i] = in[in.length-1-i];
 		}
 		return out;
 	}
 	
-	static byte[] encodepoint(BigInteger[] P) {
-		BigInteger x = P[0];
-		BigInteger y = P[1];
-		byte[] out = encodeint(y);
-		//System.out.println("encodepoint x="+x+" testbit="+(x.testBit(0) ? 1 : 0));
-		out[out.length-1] |= (x.testBit(0) ? 0x80 : 0);
+	static byte[] encodepoint(int[][] P) {
+		byte[] out = new byte[b/8];
+		encodepoint(out, 0, P, Field25519.create(6));
 		return out;
 	}
 	
+	/**
+	 * Writes the 32-byte encoding of P to out[off..off+32), t is 6 scratch elements
+	 */
+	static void encodepoint(byte[] out, int off, int[][] P, int[][] t) {
+		int[] x = t[4], y = t[5];
+		Field25519.invert(y, P[2], t);
+		Field25519.mul(x, P[0], y);
+		Field25519.mul(y, P[1], y);
+		Field25519.tobytes(out, off, y, t[0]);
+		out[off+b/8-1] |= Field25519.isnegative(x, t[0]) << 7;
+	}
+	
 	static int bit(byte[] h, int i) {
 		//System.out.println("bit open with i="+i);
 		//System.out.println("bit close with "+(h[i/8] >> (i%8) & 1));
 		return h[i/8] >> (i%8) & 1;
 	}
 	
+	/**
+	 * Per-thread scratch space for key generation and signing. Every secret intermediate (the expanded key, the
+	 * nonce, the point r*B) lives here rather than in fresh arrays or BigIntegers, and is wiped when done.
+	 */
+	private static final class SigningScratch {
+		final MessageDigest sha512 = newSha512();
+		final BasePointTable.Scratch mult = new BasePointTable.Scratch();
+		final byte[] h = new byte[64];
+		final byte[] r = new byte[64];
+		final byte[] k = new byte[64];
+		final long[] x = Scalar25519.scratch();
+		final int[][] R = newpoint();
+		final int[][] t = Field25519.create(6);
+		
+		void wipe() {
+			Arrays.fill(h, (byte) 0);
+			Arrays.fill(r, (byte) 0);
+			Arrays.fill(k, (byte) 0);
+			for (int i=0;i<4;i++) {
+				Field25519.zero(R[i]);
+			}
+			for (int i=0;i<t.length;i++) {
+				Field25519.zero(t[i]);
+			}
+		}
+	}
+	
+	private static final ThreadLocal<SigningScratch> signingScratch = new ThreadLocal<SigningScratch>() {
+		@Override
+		protected SigningScratch initialValue() {
+			return new SigningScratch();
+		}
+	};
+	
+	/**
+	 * s.h = SHA-512(sk) with its lower half clamped into the secret scalar a = 2^254 + 8*(bits 3..253).
+	 * sk is read from s.h[0..32).
+	 */
+	private static void expand(SigningScratch s) {
+		try {
+			s.sha512.update(s.h, 0, b/8);
+			s.sha512.digest(s.h, 0, b/4);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		}
+		clamp(s.h);
+	}
+	
+	private static void clamp(byte[] h) {
+		h[0] &= 248;
+		h[31] &= 127;
+		h[31] |= 64;
+	}
+	
+	/**
+	 * @return the public key a*B for the clamped scalar in s.h[0..32)
+	 */
+	private static byte[] publickey(SigningScratch s) {
+		long start = System.nanoTime();
+		BasePointTable.scalarmult(s.R, s.h, s.mult);
+		byte[] out = new byte[b/8];
+		encodepoint(out, 0, s.R, s.t);
+		PUBLICKEY.record(start);
+		return out;
+	}
+	
+	/**
+	 * Signs m with the expanded key in s.h: r = H(h[32..64) || m) mod l, R = r*B, S = r + H(R || pk || m)*a mod l.
+	 * m is read twice, it is a byte[], ByteBuffer[] or FileChannel, see update().
+	 */
+	private static byte[] signature(Object m, byte[] pk, SigningScratch s) throws IOException {
+		long start = System.nanoTime();
+		byte[] out = new byte[b/4];
+		try {
+			s.sha512.update(s.h, b/8, b/8);
+			update(s.sha512, m);
+			s.sha512.digest(s.r, 0, b/4);
+			Scalar25519.reduce(s.r, 0, s.r, s.x);
+			BasePointTable.scalarmult(s.R, s.r, s.mult);
+			encodepoint(out, 0, s.R, s.t);
+			s.sha512.update(out, 0, b/8);
+			s.sha512.update(pk);
+			update(s.sha512, m);
+			s.sha512.digest(s.k, 0, b/4);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			// a failed read leaves part of the nonce hash behind
+			s.sha512.reset();
+		}
+		Scalar25519.reduce(s.k, 0, s.k, s.x);
+		Scalar25519.muladd(out, b/8, s.k, s.h, s.r, s.x);
+		SIGN.record(start);
+		return out;
+	}
+	
 	public static byte[] publickeyFrom512(byte[] h) {
-		//System.out.println("publickey open with h=" + test.getHex(h));
-		BigInteger a = BigInteger.valueOf(2).pow(b-2);
-		for (int i=3;i<(b-2);i++) {
-			BigInteger apart = BigInteger.valueOf(2).pow(i).multiply(BigInteger.valueOf(bit(h,i)));
-			//System.out.println("publickey apart="+apart);
-			a = a.add(apart);
+		SigningScratch s = signingScratch.get();
+		try {
+			System.arraycopy(h, 0, s.h, 0, b/8);
+			clamp(s.h);
+			return publickey(s);
+		} finally {
+			s.wipe();
 		}
-		BigInteger[] A = scalarmult(B,a);
-		//System.out.println("publickey close with A="+A[0]+","+A[1]+" out="+test.getHex(encodepoint(A)));
-		return encodepoint(A);
 	}
 	
 	public static byte[] publickey(byte[] sk) {
-		byte[] h = H(sk);
-		return publickeyFrom512(h);
+		SigningScratch s = signingScratch.get();
+		try {
+			System.arraycopy(sk, 0, s.h, 0, b/8);
+			expand(s);
+			return publickey(s);
+		} finally {
+			s.wipe();
+		}
 	}
 	
-	static BigInteger Hint(byte[] m) {
-		byte[] h = H(m);
-		BigInteger hsum = BigInteger.ZERO;
-		for (int i=0;i<2*b;i++) {
-			hsum = hsum.add(BigInteger.valueOf(2).pow(i).multiply(BigInteger.valueOf(bit(h,i))));
+	/**
+	 * publickey() for a private key kept in a SecretBuffer
+	 */
+	public static byte[] publickey(SecretBuffer sk) {
+		SigningScratch s = signingScratch.get();
+		try {
+			sk.copyTo(s.h, 0);
+			expand(s);
+			return publickey(s);
+		} finally {
+			s.wipe();
 		}
-		return hsum;
 	}
 	
 	public static byte[] signatureFrom512(byte[] m, byte[] h, byte[] pk) {
-		//System.out.println("signature open with m="+test.getHex(m)+" h="+test.getHex(h)+" pk="+test.getHex(pk));
-		BigInteger a = BigInteger.valueOf(2).pow(b-2);
-		for (int i=3;i<(b-2);i++) {
-			a = a.add(BigInteger.valueOf(2).pow(i).multiply(BigInteger.valueOf(bit(h,i))));
-		}
-		//System.out.println("signature a="+a);
-		ByteBuffer rsub = ByteBuffer.allocate((b/8)+m.length);
-		rsub.put(h, b/8, b/4-b/8).put(m);
-		//System.out.println("signature rsub="+test.getHex(rsub.array()));
-		BigInteger r = Hint(rsub.array());
-		//System.out.println("signature r="+r);
-		BigInteger[] R = scalarmult(B,r);
-		ByteBuffer Stemp = ByteBuffer.allocate(32+pk.length+m.length);
-		Stemp.put(encodepoint(R)).put(pk).put(m);
-		BigInteger S = r.add(Hint(Stemp.array()).multiply(a)).mod(l);
-		ByteBuffer out = ByteBuffer.allocate(64);
-		out.put(encodepoint(R)).put(encodeint(S));
-		return out.array();
+		SigningScratch s = signingScratch.get();
+		try {
+			System.arraycopy(h, 0, s.h, 0, b/4);
+			clamp(s.h);
+			return signature(m, pk, s);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			s.wipe();
+		}
 	}
+	
 	public static byte[] signature(byte[] m, byte[] sk, byte[] pk) {
-		byte[] h = H(sk);
-		return signatureFrom512(m, h, pk);
+		return signInMemory(m, sk, pk);
+	}
+	
+	/**
+	 * signature() for a private key kept in a SecretBuffer
+	 */
+	public static byte[] signature(byte[] m, SecretBuffer sk, byte[] pk) {
+		return signInMemory(m, sk, pk);
+	}
+	
+	/**
+	 * signature() of a message in several pieces, m is the concatenation of the remaining bytes of every buffer.
+	 * The buffers are read twice, but their positions are left alone.
+	 */
+	public static byte[] signature(ByteBuffer[] m, byte[] sk, byte[] pk) {
+		return signInMemory(m, sk, pk);
+	}
+	
+	public static byte[] signature(ByteBuffer[] m, SecretBuffer sk, byte[] pk) {
+		return signInMemory(m, sk, pk);
 	}
 	
-	static boolean isoncurve(BigInteger[] P) {
-		BigInteger x = P[0];
-		BigInteger y = P[1];
-		//System.out.println("isoncurve open with P="+x+","+y);
-		BigInteger xx = x.multiply(x);
-		BigInteger yy = y.multiply(y);
-		BigInteger dxxyy = d.multiply(yy).multiply(xx);
-		//System.out.println("isoncurve close with "+xx.negate().add(yy).subtract(BigInteger.ONE).subtract(dxxyy).mod(q));
-		return xx.negate().add(yy).subtract(BigInteger.ONE).subtract(dxxyy).mod(q).equals(BigInteger.ZERO);
+	/**
+	 * signature() of the whole content of a file, which is read twice from start to end in chunks. The position of
+	 * m is left alone.
+	 */
+	public static byte[] signature(FileChannel m, byte[] sk, byte[] pk) throws IOException {
+		return sign(new WholeFile(m), sk, pk);
+	}
+	
+	public static byte[] signature(FileChannel m, SecretBuffer sk, byte[] pk) throws IOException {
+		return sign(new WholeFile(m), sk, pk);
+	}
+	
+	/**
+	 * A FileChannel to be read from start to end, as often as needed, rather than from its position on
+	 */
+	private static final class WholeFile {
+		final FileChannel channel;
+		
+		WholeFile(FileChannel channel) {
+			this.channel = channel;
+		}
+	}
+	
+	/**
+	 * Expands the private key sk (a byte[] or SecretBuffer) once, for Ed25519PrivateKey: expanded gets the clamped
+	 * scalar a followed by the nonce prefix.
+	 * 
+	 * @return the public key
+	 */
+	static byte[] expandKey(Object sk, SecretBuffer expanded) {
+		SigningScratch s = signingScratch.get();
+		try {
+			if (sk instanceof SecretBuffer) {
+				((SecretBuffer) sk).copyTo(s.h, 0);
+			} else {
+				System.arraycopy((byte[]) sk, 0, s.h, 0, b/8);
+			}
+			expand(s);
+			for (int i=0;i<b/4;i++) {
+				expanded.put(i, s.h[i]);
+			}
+			return publickey(s);
+		} finally {
+			s.wipe();
+		}
+	}
+	
+	/**
+	 * Signs m (see update(), a FileChannel is signed as a whole) with a key from expandKey()
+	 */
+	static byte[] signExpanded(Object m, SecretBuffer expanded, byte[] pk) throws IOException {
+		SigningScratch s = signingScratch.get();
+		try {
+			expanded.copyTo(s.h, 0);
+			return signature(m instanceof FileChannel ? new WholeFile((FileChannel) m) : m, pk, s);
+		} finally {
+			s.wipe();
+		}
+	}
+	
+	/**
+	 * sign() for messages that are already in memory and cannot fail to be read
+	 */
+	private static byte[] signInMemory(Object m, Object sk, byte[] pk) {
+		try {
+			return sign(m, sk, pk);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @param m see update()
+	 * @param sk the 32-byte private key, a byte[] or a SecretBuffer
+	 */
+	private static byte[] sign(Object m, Object sk, byte[] pk) throws IOException {
+		SigningScratch s = signingScratch.get();
+		try {
+			if (sk instanceof SecretBuffer) {
+				((SecretBuffer) sk).copyTo(s.h, 0);
+			} else {
+				System.arraycopy((byte[]) sk, 0, s.h, 0, b/8);
+			}
+			expand(s);
+			return signature(m, pk, s);
+		} finally {
+			s.wipe();
+		}
+	}
+	
+	/** chunk size for reading channels */
+	private static final int CHUNK = 8192;
+	
+	/**
+	 * Feeds a message to md without copying it into one array: a byte[], the remaining bytes of a ByteBuffer[]
+	 * (positions are left alone), all of a WholeFile (its position is left alone) or the rest of a
+	 * ReadableByteChannel (read to its end).
+	 */
+	private static void update(MessageDigest md, Object m) throws IOException {
+		if (m instanceof byte[]) {
+			md.update((byte[]) m);
+		} else if (m instanceof ByteBuffer[]) {
+			for (ByteBuffer segment : (ByteBuffer[]) m) {
+				md.update(segment.duplicate());
+			}
+		} else if (m instanceof WholeFile) {
+			FileChannel channel = ((WholeFile) m).channel;
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+			long size = channel.size();
+			for (long position = 0; position < size; ) {
+				chunk.clear();
+				int n = channel.read(chunk, position);
+				if (n < 0) break;
+				position += n;
+				chunk.flip();
+				md.update(chunk);
+			}
+		} else {
+			ReadableByteChannel channel = (ReadableByteChannel) m;
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+			while (channel.read(chunk) >= 0) {
+				chunk.flip();
+				md.update(chunk);
+				chunk.clear();
+			}
+		}
 	}
 	
 	static BigInteger decodeint(byte[] s) {
@@ -190,45 +615,275 @@ public class Curve25519 {
 		return new BigInteger(out).and(un);
 	}
 	
-	static BigInteger[] decodepoint(byte[] s) throws Exception {
-		byte[] ybyte = new byte[s.length];
-		for (int i=0;i<s.length;i++) {
-			ybyte[i] = s[s.length-1-i];
-		}
-		//System.out.println("decodepoint open with s="+test.getHex(s)+" ybyte="+test.getHex(ybyte));
-		BigInteger y = new BigInteger(ybyte).and(un);
-		//System.out.println("decodepoint y="+y);
-		BigInteger x = xrecover(y);
-		//System.out.println("decodepoint x="+x+" testbit="+(x.testBit(0)?1:0)+" bit="+bit(s, b-1));
-		if ((x.testBit(0)?1:0) != bit(s, b-1)) {
-			x = q.subtract(x);
-		}
-		BigInteger[] P = {x,y};
-		if (!isoncurve(P)) throw new Exception("decoding point that is not on curve");
+	static int[][] decodepoint(byte[] s) throws Exception {
+		int[][] P = newpoint();
+		decodepoint(P, s, 0, Field25519.create(7));
 		return P;
 	}
 	
+	/**
+	 * P = the point encoded in s[off..off+32), t is 7 scratch elements
+	 */
+	static void decodepoint(int[][] P, byte[] s, int off, int[][] t) throws Exception {
+		int[] u = t[3], v = t[4], v3 = t[5], vxx = t[6];
+		Field25519.frombytes(P[1], s, off);
+		Field25519.one(P[2]);
+		Field25519.sq(u, P[1]);
+		Field25519.mul(v, u, fd);
+		Field25519.sub(u, u, P[2]);		// u = y^2-1
+		Field25519.add(v, v, P[2]);		// v = d*y^2+1
+		// x = sqrt(u/v) = u*v^3*(u*v^7)^((q-5)/8), possibly times sqrt(-1)
+		Field25519.sq(v3, v);
+		Field25519.mul(v3, v3, v);
+		Field25519.sq(P[0], v3);
+		Field25519.mul(P[0], P[0], v);
+		Field25519.mul(P[0], P[0], u);
+		Field25519.pow22523(P[0], P[0], t);
+		Field25519.mul(P[0], P[0], v3);
+		Field25519.mul(P[0], P[0], u);
+		Field25519.sq(vxx, P[0]);
+		Field25519.mul(vxx, vxx, v);
+		Field25519.sub(t[0], vxx, u);
+		if (!Field25519.iszero(t[0], t[1])) {
+			Field25519.add(t[0], vxx, u);
+			if (!Field25519.iszero(t[0], t[1])) throw new Exception("decoding point that is not on curve");
+			Field25519.mul(P[0], P[0], fI);
+		}
+		if (Field25519.isnegative(P[0], t[0]) != ((s[off+b/8-1] >> 7) & 1)) {
+			Field25519.neg(P[0], P[0]);
+		}
+		Field25519.mul(P[3], P[0], P[1]);
+	}
+	
+	private static final PublicKeyCache publicKeyCache = new PublicKeyCache(1024, 4);
+	
+	private static final OperationMetrics.Operation PUBLICKEY = OperationMetrics.getDefault().operation("crypto.publickey");
+	private static final OperationMetrics.Operation SIGN = OperationMetrics.getDefault().operation("crypto.sign");
+	// errors are signatures that did not verify
+	private static final OperationMetrics.Operation VERIFY = OperationMetrics.getDefault().operation("crypto.verify");
+	private static final OperationMetrics.Operation VERIFY_BATCH = OperationMetrics.getDefault().operation("crypto.verifyBatch");
+	
+	/**
+	 * @return the cache of decoded public keys used by checkvalid(s, m, pk) and checkvalidBatch()
+	 */
+	public static PublicKeyCache getPublicKeyCache() {
+		return publicKeyCache;
+	}
+	
 	public static boolean checkvalid(byte[] s, byte[] m, byte[] pk) throws Exception {
+		return checkvalid(s, m, pk, publicKeyCache);
+	}
+	
+	/**
+	 * @param cache where to look up (and keep) the decoded public key, or null to always decode it
+	 */
+	public static boolean checkvalid(byte[] s, byte[] m, byte[] pk, PublicKeyCache cache) throws Exception {
+		return checkvalidOf(s, m, pk, cache);
+	}
+	
+	/**
+	 * checkvalid() of a message in several pieces, m is the concatenation of the remaining bytes of every buffer.
+	 * Their positions are left alone.
+	 */
+	public static boolean checkvalid(byte[] s, ByteBuffer[] m, byte[] pk) throws Exception {
+		return checkvalidOf(s, m, pk, publicKeyCache);
+	}
+	
+	/**
+	 * checkvalid() of everything m has left to read, which is read once in chunks and never held in memory as a
+	 * whole.
+	 */
+	public static boolean checkvalid(byte[] s, ReadableByteChannel m, byte[] pk) throws Exception {
+		return checkvalidOf(s, m, pk, publicKeyCache);
+	}
+	
+	private static boolean checkvalidOf(byte[] s, Object m, byte[] pk, PublicKeyCache cache) throws Exception {
+		long start = System.nanoTime();
+		try {
+			boolean valid = verify(s, m, pk, cache);
+			if (!valid) VERIFY.fail();
+			return valid;
+		} catch (Exception e) {
+			VERIFY.fail();
+			throw e;
+		} finally {
+			VERIFY.record(start);
+		}
+	}
+	
+	private static boolean verify(byte[] s, Object m, byte[] pk, PublicKeyCache cache) throws Exception {
 		if (s.length != b/4) throw new Exception("signature length is wrong");
 		if (pk.length != b/8) throw new Exception("public-key length is wrong");
-		//System.out.println("checkvalid open with s="+test.getHex(s)+" m="+test.getHex(m)+" pk="+test.getHex(pk));
-		byte[] Rbyte = Arrays.copyOfRange(s, 0, b/8);
-		//System.out.println("checkvalid Rbyte="+test.getHex(Rbyte));
-		BigInteger[] R = decodepoint(Rbyte);
-		BigInteger[] A = decodepoint(pk);
-		//System.out.println("checkvalid R="+R[0]+","+R[1]+" A="+A[0]+","+A[1]);
-		byte[] Sbyte = Arrays.copyOfRange(s, b/8, b/4);
-		//System.out.println("checkvalid Sbyte="+test.getHex(Sbyte));
-		BigInteger S = decodeint(Sbyte);
-		//System.out.println("checkvalid S="+S);
-		ByteBuffer Stemp = ByteBuffer.allocate(32+pk.length+m.length);
-		Stemp.put(encodepoint(R)).put(pk).put(m);
-		BigInteger h = Hint(Stemp.array());
-		BigInteger[] ra = scalarmult(B,S);
-		BigInteger[] rb = edwards(R,scalarmult(A,h));
-		//System.out.println("checkvalid ra="+ra[0]+","+ra[1]+" rb="+rb[0]+","+rb[1]);
-		if (!ra[0].equals(rb[0]) || !ra[1].equals(rb[1])) // Constant time comparison
-			return false;
-		return true;
+		VerifyScratch v = verifyScratch.get();
+		decodepoint(v.R, s, 0, v.t);
+		int[][][] Ai;
+		if (cache != null) {
+			PublicKeyCache.Entry entry = cache.get(pk);
+			Ai = entry.table;
+			if (Ai == null) {
+				oddmultiples(v.Ai, entry.negA, v.P2, v.t);
+				Ai = v.Ai;
+			}
+		} else {
+			decodepoint(v.A, pk, 0, v.t);
+			negate(v.A, v.A);
+			oddmultiples(v.Ai, v.A, v.P2, v.t);
+			Ai = v.Ai;
+		}
+		// S mod l, its top bit ignored like decodeint() does
+		System.arraycopy(s, b/8, v.S, 0, b/8);
+		v.S[b/8-1] &= 127;
+		Scalar25519.reduce(v.S, 0, v.S, v.x);
+		challenge(v.h, s, pk, m, v.x);
+		// cofactored, [8]([S]B + [h](-A) - R) == 0, the same equation checkvalidBatch() checks for many at once.
+		// A small-order part of R or A does not change the answer, so the two can never disagree.
+		doublescalarmultbase(v.sum, Ai, v.h, v.S, v);
+		negate(v.R, v.R);
+		edwards(v.sum, v.sum, v.R, v.t);
+		return iscofactoridentity(v.sum, v.t);
+	}
+	
+	/**
+	 * Per-thread scratch space for verification, so that checking a signature allocates nothing but what the
+	 * SHA-512 of a streamed message needs
+	 */
+	static final class VerifyScratch {
+		final int[][] R = newpoint();
+		final int[][] A = newpoint();
+		final int[][] P2 = newpoint();
+		final int[][][] Ai = new int[8][][];
+		final int[][] sum = newpoint();
+		final int[][] neg = newpoint();
+		final int[][] negB = Field25519.create(3);
+		final byte[] aslide = new byte[b];
+		final byte[] cslide = new byte[b];
+		/** 64 bytes to reduce, the scalar ends up in the first 32 */
+		final byte[] S = new byte[b/4];
+		final byte[] h = new byte[b/4];
+		final long[] x = Scalar25519.scratch();
+		final int[][] t = Field25519.create(7);
+		
+		VerifyScratch() {
+			for (int j=0;j<Ai.length;j++) {
+				Ai[j] = newpoint();
+			}
+		}
+	}
+	
+	private static final ThreadLocal<VerifyScratch> verifyScratch = new ThreadLocal<VerifyScratch>() {
+		@Override
+		protected VerifyScratch initialValue() {
+			return new VerifyScratch();
+		}
+	};
+	
+	/**
+	 * @return true if [8]P is the identity, P is overwritten. t is 6 scratch elements.
+	 */
+	static boolean iscofactoridentity(int[][] P, int[][] t) {
+		for (int i=0;i<3;i++) {
+			doubling(P, P, t);
+		}
+		return isidentity(P, t);
+	}
+	
+	/**
+	 * h[0..32) = H(R || pk || m) mod l, R being the first half of the signature s. h has 64 bytes, x is
+	 * Scalar25519 scratch.
+	 */
+	private static void challenge(byte[] h, byte[] s, byte[] pk, Object m, long[] x) throws IOException {
+		MessageDigest md = sha512.get();
+		md.reset();
+		md.update(s, 0, b/8);
+		md.update(pk);
+		update(md, m);
+		try {
+			md.digest(h, 0, b/4);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		}
+		Scalar25519.reduce(h, 0, h, x);
+	}
+	
+	private static final SecureRandom batchRandom = new SecureRandom();
+	
+	/**
+	 * Verifies a batch of signatures with a single multi-scalar multiplication. For random 128-bit z[i] it checks
+	 * [8]([-sum(z[i]*S[i])]B + sum([z[i]]R[i]) + sum([z[i]*h[i]]A[i])) == 0, which holds for a batch of valid
+	 * signatures and fails with overwhelming probability otherwise. Only when it fails is every entry checked on
+	 * its own with checkvalid() to find the bad ones. Both are cofactored: without the factor 8 a small-order
+	 * component of some R or A vanishes whenever its z happens to be a multiple of its order, and the batch would
+	 * accept a signature checkvalid() rejects.
+	 * 
+	 * Malformed entries (wrong lengths, points that do not decode) never throw, they are reported as invalid
+	 * and left out of the combined check.
+	 * 
+	 * @return valid[i] is true if batch.get(i) carries a valid signature
+	 */
+	public static boolean[] checkvalidBatch(List<SignedMessage> batch) {
+		long start = System.nanoTime();
+		try {
+			return verifyBatch(batch);
+		} finally {
+			VERIFY_BATCH.record(start);
+		}
+	}
+	
+	private static boolean[] verifyBatch(List<SignedMessage> batch) {
+		int n = batch.size();
+		boolean[] valid = new boolean[n];
+		int[][][] points = new int[2*n+1][][];
+		byte[][] scalars = new byte[2*n+1][];
+		int count = 0;
+		BigInteger Bcoef = BigInteger.ZERO;
+		for (int i=0;i<n;i++) {
+			SignedMessage sm = batch.get(i);
+			byte[] s = sm.getSignature();
+			byte[] m = sm.getMessage();
+			byte[] pk = sm.getPublicKey();
+			if (s == null || m == null || pk == null || s.length != b/4 || pk.length != b/8) continue;
+			byte[] Rbyte = Arrays.copyOfRange(s, 0, b/8);
+			int[][] R;
+			int[][] negA;
+			try {
+				R = decodepoint(Rbyte);
+				negA = publicKeyCache.get(pk).negA;
+			} catch (Exception e) {
+				continue;
+			}
+			BigInteger S = decodeint(Arrays.copyOfRange(s, b/8, b/4));
+			BigInteger h;
+			try {
+				byte[] hash = new byte[b/4];
+				challenge(hash, s, pk, m, Scalar25519.scratch());
+				h = decodeint(Arrays.copyOf(hash, b/8));
+			} catch (IOException e) {
+				// byte[] messages do not throw
+				throw new IllegalStateException(e);
+			}
+			BigInteger z = new BigInteger(128, batchRandom);
+			Bcoef = Bcoef.add(z.multiply(S));
+			points[count] = R;
+			scalars[count++] = encodeint(z);
+			points[count] = negA;
+			scalars[count++] = encodeint(l.subtract(z.multiply(h).mod(l)));
+			valid[i] = true;
+		}
+		if (count == 0) return valid;
+		points[count] = B;
+		scalars[count++] = encodeint(l.subtract(Bcoef.mod(l)).mod(l));
+		if (iscofactoridentity(MultiScalarMult.pippenger(points, scalars, count), Field25519.create(6))) return valid;
+		
+		// at least one of them is bad, fall back to checking them one by one
+		for (int i=0;i<n;i++) {
+			if (!valid[i]) continue;
+			SignedMessage sm = batch.get(i);
+			try {
+				valid[i] = checkvalid(sm.getSignature(), sm.getMessage(), sm.getPublicKey());
+			} catch (Exception e) {
+				valid[i] = false;
+			}
+		}
+		return valid;
 	}
 }
@@ -0,0 +1,81 @@
+package com.sqrl.crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.sqrl.utils.SecretBuffer;
+
+/**
+ * An Ed25519 private key that is expanded once. Curve25519.signature() hashes the 32-byte seed with SHA-512, clamps
+ * it and derives the public key for every signature it makes; this keeps the clamped scalar, the nonce prefix and the
+ * public key instead, so signing with it costs one scalar multiplication and two hashes of the message.
+ *
+ * The expanded key is held in a SecretBuffer and zeroed by close(). Signing is thread-safe, but the key must not be
+ * closed while another thread is still signing with it.
+ */
+public final class Ed25519PrivateKey implements Closeable {
+    private final SecretBuffer expanded = SecretBuffer.allocate(64);
+    private final byte[] publicKey;
+
+    private Ed25519PrivateKey(Object seed) {
+        publicKey = Curve25519.expandKey(seed, expanded);
+    }
+
+    /**
+     * @param seed the 32-byte private key, as passed to Curve25519.signature()
+     */
+    public static Ed25519PrivateKey fromSeed(byte[] seed) {
+        return new Ed25519PrivateKey(seed);
+    }
+
+    /**
+     * @param seed the 32-byte private key, as passed to Curve25519.signature(). It can be closed afterwards.
+     */
+    public static Ed25519PrivateKey fromSeed(SecretBuffer seed) {
+        return new Ed25519PrivateKey(seed);
+    }
+
+    public byte[] getPublicKey() {
+        return publicKey.clone();
+    }
+
+    public byte[] sign(byte[] message) {
+        try {
+            return Curve25519.signExpanded(message, expanded, publicKey);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Signs the remaining bytes of the buffers, one after the other. Their positions do not change.
+     */
+    public byte[] sign(ByteBuffer[] message) {
+        try {
+            return Curve25519.signExpanded(message, expanded, publicKey);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Signs the whole file, see Curve25519.signature(FileChannel, byte[], byte[])
+     */
+    public byte[] sign(FileChannel message) throws IOException {
+        return Curve25519.signExpanded(message, expanded, publicKey);
+    }
+
+    public boolean isClosed() {
+        return expanded.isClosed();
+    }
+
+    /**
+     * Zeroes the key, signing with it afterwards throws an IllegalStateException
+     */
+    @Override
+    public void close() {
+        expanded.close();
+    }
+}
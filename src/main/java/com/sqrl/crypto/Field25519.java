@@ -0,0 +1,371 @@
+package com.sqrl.crypto;
+
+/**
+ * Arithmetic in GF(2^255-19) on fixed-width field elements.
+ *
+ * An element is an int[10] t holding the value t[0] + 2^26*t[1] + 2^51*t[2] + 2^77*t[3] + 2^102*t[4] + ... +
+ * 2^230*t[9], i.e. alternating 26 and 25 bit limbs (ten 25.5-bit limbs). Limbs are signed and are allowed to
+ * grow a few bits past their nominal width between multiplications, carries are only propagated by mul(), sq()
+ * and tobytes(). This is the representation used by the ref10 implementation of Ed25519 (Bernstein, Duif, Lange,
+ * Schwabe, Yang).
+ *
+ * None of the methods allocate, outputs and temporaries are always supplied by the caller. Outputs may alias
+ * inputs.
+ */
+final class Field25519 {
+    static final int LIMBS = 10;
+
+    private Field25519() {
+    }
+
+    static int[] create() {
+        return new int[LIMBS];
+    }
+
+    static int[][] create(int count) {
+        return new int[count][LIMBS];
+    }
+
+    static void zero(int[] h) {
+        for (int i = 0; i < LIMBS; i++) {
+            h[i] = 0;
+        }
+    }
+
+    static void one(int[] h) {
+        zero(h);
+        h[0] = 1;
+    }
+
+    static void copy(int[] h, int[] f) {
+        System.arraycopy(f, 0, h, 0, LIMBS);
+    }
+
+    static void add(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < LIMBS; i++) {
+            h[i] = f[i] + g[i];
+        }
+    }
+
+    static void sub(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < LIMBS; i++) {
+            h[i] = f[i] - g[i];
+        }
+    }
+
+    static void neg(int[] h, int[] f) {
+        for (int i = 0; i < LIMBS; i++) {
+            h[i] = -f[i];
+        }
+    }
+
+    /**
+     * Replaces f with g if b == 1, leaves f untouched if b == 0. Runs in constant time.
+     */
+    static void cmov(int[] f, int[] g, int b) {
+        b = -b;
+        for (int i = 0; i < LIMBS; i++) {
+            f[i] ^= (f[i] ^ g[i]) & b;
+        }
+    }
+
+    /**
+     * h = f * g
+     */
+    static void mul(int[] h, int[] f, int[] g) {
+        long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+        long f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        long g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4];
+        long g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+        // 2^255 = 19 (mod q) folds the high products back down; odd*odd limb products gain a factor of 2
+        long g1_19 = 19 * g1, g2_19 = 19 * g2, g3_19 = 19 * g3, g4_19 = 19 * g4, g5_19 = 19 * g5;
+        long g6_19 = 19 * g6, g7_19 = 19 * g7, g8_19 = 19 * g8, g9_19 = 19 * g9;
+        long f1_2 = 2 * f1, f3_2 = 2 * f3, f5_2 = 2 * f5, f7_2 = 2 * f7, f9_2 = 2 * f9;
+
+        long h0 = f0 * g0 + f1_2 * g9_19 + f2 * g8_19 + f3_2 * g7_19 + f4 * g6_19
+                + f5_2 * g5_19 + f6 * g4_19 + f7_2 * g3_19 + f8 * g2_19 + f9_2 * g1_19;
+        long h1 = f0 * g1 + f1 * g0 + f2 * g9_19 + f3 * g8_19 + f4 * g7_19
+                + f5 * g6_19 + f6 * g5_19 + f7 * g4_19 + f8 * g3_19 + f9 * g2_19;
+        long h2 = f0 * g2 + f1_2 * g1 + f2 * g0 + f3_2 * g9_19 + f4 * g8_19
+                + f5_2 * g7_19 + f6 * g6_19 + f7_2 * g5_19 + f8 * g4_19 + f9_2 * g3_19;
+        long h3 = f0 * g3 + f1 * g2 + f2 * g1 + f3 * g0 + f4 * g9_19
+                + f5 * g8_19 + f6 * g7_19 + f7 * g6_19 + f8 * g5_19 + f9 * g4_19;
+        long h4 = f0 * g4 + f1_2 * g3 + f2 * g2 + f3_2 * g1 + f4 * g0
+                + f5_2 * g9_19 + f6 * g8_19 + f7_2 * g7_19 + f8 * g6_19 + f9_2 * g5_19;
+        long h5 = f0 * g5 + f1 * g4 + f2 * g3 + f3 * g2 + f4 * g1
+                + f5 * g0 + f6 * g9_19 + f7 * g8_19 + f8 * g7_19 + f9 * g6_19;
+        long h6 = f0 * g6 + f1_2 * g5 + f2 * g4 + f3_2 * g3 + f4 * g2
+                + f5_2 * g1 + f6 * g0 + f7_2 * g9_19 + f8 * g8_19 + f9_2 * g7_19;
+        long h7 = f0 * g7 + f1 * g6 + f2 * g5 + f3 * g4 + f4 * g3
+                + f5 * g2 + f6 * g1 + f7 * g0 + f8 * g9_19 + f9 * g8_19;
+        long h8 = f0 * g8 + f1_2 * g7 + f2 * g6 + f3_2 * g5 + f4 * g4
+                + f5_2 * g3 + f6 * g2 + f7_2 * g1 + f8 * g0 + f9_2 * g9_19;
+        long h9 = f0 * g9 + f1 * g8 + f2 * g7 + f3 * g6 + f4 * g5
+                + f5 * g4 + f6 * g3 + f7 * g2 + f8 * g1 + f9 * g0;
+
+        carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    /**
+     * h = f * f
+     */
+    static void sq(int[] h, int[] f) {
+        square(h, f, false);
+    }
+
+    /**
+     * h = 2 * f * f
+     */
+    static void sq2(int[] h, int[] f) {
+        square(h, f, true);
+    }
+
+    private static void square(int[] h, int[] f, boolean twice) {
+        long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+        long f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        long f0_2 = 2 * f0, f1_2 = 2 * f1, f2_2 = 2 * f2, f3_2 = 2 * f3;
+        long f4_2 = 2 * f4, f5_2 = 2 * f5, f6_2 = 2 * f6, f7_2 = 2 * f7;
+        long f5_38 = 38 * f5, f6_19 = 19 * f6, f7_38 = 38 * f7, f8_19 = 19 * f8, f9_38 = 38 * f9;
+
+        long h0 = f0 * f0 + f1_2 * f9_38 + f2_2 * f8_19 + f3_2 * f7_38 + f4_2 * f6_19 + f5 * f5_38;
+        long h1 = f0_2 * f1 + f2 * f9_38 + f3_2 * f8_19 + f4 * f7_38 + f5_2 * f6_19;
+        long h2 = f0_2 * f2 + f1_2 * f1 + f3_2 * f9_38 + f4_2 * f8_19 + f5_2 * f7_38 + f6 * f6_19;
+        long h3 = f0_2 * f3 + f1_2 * f2 + f4 * f9_38 + f5_2 * f8_19 + f6 * f7_38;
+        long h4 = f0_2 * f4 + f1_2 * f3_2 + f2 * f2 + f5_2 * f9_38 + f6_2 * f8_19 + f7 * f7_38;
+        long h5 = f0_2 * f5 + f1_2 * f4 + f2_2 * f3 + f6 * f9_38 + f7_2 * f8_19;
+        long h6 = f0_2 * f6 + f1_2 * f5_2 + f2_2 * f4 + f3_2 * f3 + f7_2 * f9_38 + f8 * f8_19;
+        long h7 = f0_2 * f7 + f1_2 * f6 + f2_2 * f5 + f3_2 * f4 + f8 * f9_38;
+        long h8 = f0_2 * f8 + f1_2 * f7_2 + f2_2 * f6 + f3_2 * f5_2 + f4 * f4 + f9 * f9_38;
+        long h9 = f0_2 * f9 + f1_2 * f8 + f2_2 * f7 + f3_2 * f6 + f4_2 * f5;
+
+        if (twice) {
+            h0 += h0; h1 += h1; h2 += h2; h3 += h3; h4 += h4;
+            h5 += h5; h6 += h6; h7 += h7; h8 += h8; h9 += h9;
+        }
+        carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    private static void carry(int[] h, long h0, long h1, long h2, long h3, long h4,
+                              long h5, long h6, long h7, long h8, long h9) {
+        long c;
+        c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+        c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+        c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+        c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+        c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+        c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+        c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+        c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+        c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+        c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+        c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+        c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+
+        h[0] = (int) h0; h[1] = (int) h1; h[2] = (int) h2; h[3] = (int) h3; h[4] = (int) h4;
+        h[5] = (int) h5; h[6] = (int) h6; h[7] = (int) h7; h[8] = (int) h8; h[9] = (int) h9;
+    }
+
+    /**
+     * h = f^(2^n)
+     */
+    static void sqn(int[] h, int[] f, int n) {
+        sq(h, f);
+        for (int i = 1; i < n; i++) {
+            sq(h, h);
+        }
+    }
+
+    /**
+     * h = z^(q-2) = 1/z, using the 254 squaring + 11 multiplication addition chain. t must hold at least 4
+     * scratch elements.
+     */
+    static void invert(int[] h, int[] z, int[][] t) {
+        int[] t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3];
+        sq(t0, z);              // 2
+        sqn(t1, t0, 2);         // 8
+        mul(t1, z, t1);         // 9
+        mul(t0, t0, t1);        // 11
+        sq(t2, t0);             // 22
+        mul(t1, t1, t2);        // 2^5 - 1
+        sqn(t2, t1, 5);
+        mul(t1, t2, t1);        // 2^10 - 1
+        sqn(t2, t1, 10);
+        mul(t2, t2, t1);        // 2^20 - 1
+        sqn(t3, t2, 20);
+        mul(t2, t3, t2);        // 2^40 - 1
+        sqn(t2, t2, 10);
+        mul(t1, t2, t1);        // 2^50 - 1
+        sqn(t2, t1, 50);
+        mul(t2, t2, t1);        // 2^100 - 1
+        sqn(t3, t2, 100);
+        mul(t2, t3, t2);        // 2^200 - 1
+        sqn(t2, t2, 50);
+        mul(t1, t2, t1);        // 2^250 - 1
+        sqn(t1, t1, 5);         // 2^255 - 32
+        mul(h, t1, t0);         // 2^255 - 21
+    }
+
+    /**
+     * h = z^((q-5)/8) = z^(2^252-3), used to take square roots. t must hold at least 3 scratch elements.
+     */
+    static void pow22523(int[] h, int[] z, int[][] t) {
+        int[] t0 = t[0], t1 = t[1], t2 = t[2];
+        sq(t0, z);              // 2
+        sqn(t1, t0, 2);         // 8
+        mul(t1, z, t1);         // 9
+        mul(t0, t0, t1);        // 11
+        sq(t0, t0);             // 22
+        mul(t0, t1, t0);        // 2^5 - 1
+        sqn(t1, t0, 5);
+        mul(t0, t1, t0);        // 2^10 - 1
+        sqn(t1, t0, 10);
+        mul(t1, t1, t0);        // 2^20 - 1
+        sqn(t2, t1, 20);
+        mul(t1, t2, t1);        // 2^40 - 1
+        sqn(t1, t1, 10);
+        mul(t0, t1, t0);        // 2^50 - 1
+        sqn(t1, t0, 50);
+        mul(t1, t1, t0);        // 2^100 - 1
+        sqn(t2, t1, 100);
+        mul(t1, t2, t1);        // 2^200 - 1
+        sqn(t1, t1, 50);
+        mul(t0, t1, t0);        // 2^250 - 1
+        sqn(t0, t0, 2);         // 2^252 - 4
+        mul(h, t0, z);          // 2^252 - 3
+    }
+
+    /**
+     * Loads a little-endian 255-bit value, the top bit of s[off+31] is ignored.
+     */
+    static void frombytes(int[] h, byte[] s, int off) {
+        long h0 = load4(s, off);
+        long h1 = load3(s, off + 4) << 6;
+        long h2 = load3(s, off + 7) << 5;
+        long h3 = load3(s, off + 10) << 3;
+        long h4 = load3(s, off + 13) << 2;
+        long h5 = load4(s, off + 16);
+        long h6 = load3(s, off + 20) << 7;
+        long h7 = load3(s, off + 23) << 5;
+        long h8 = load3(s, off + 26) << 4;
+        long h9 = (load3(s, off + 29) & 0x7fffff) << 2;
+        long c;
+        c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+        c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+        c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+        c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+        c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+        c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+        c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+        c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+        c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+        c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+
+        h[0] = (int) h0; h[1] = (int) h1; h[2] = (int) h2; h[3] = (int) h3; h[4] = (int) h4;
+        h[5] = (int) h5; h[6] = (int) h6; h[7] = (int) h7; h[8] = (int) h8; h[9] = (int) h9;
+    }
+
+    private static long load3(byte[] s, int off) {
+        return (s[off] & 0xff) | ((s[off + 1] & 0xff) << 8) | ((long) (s[off + 2] & 0xff) << 16);
+    }
+
+    private static long load4(byte[] s, int off) {
+        return load3(s, off) | ((long) (s[off + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Writes the canonical (fully reduced mod q) limbs of f to h.
+     */
+    static void reduce(int[] h, int[] f) {
+        int h0 = f[0], h1 = f[1], h2 = f[2], h3 = f[3], h4 = f[4];
+        int h5 = f[5], h6 = f[6], h7 = f[7], h8 = f[8], h9 = f[9];
+        // q is 1 when f >= 2^255-19, 0 otherwise
+        int q = (19 * h9 + (1 << 24)) >> 25;
+        q = (h0 + q) >> 26;
+        q = (h1 + q) >> 25;
+        q = (h2 + q) >> 26;
+        q = (h3 + q) >> 25;
+        q = (h4 + q) >> 26;
+        q = (h5 + q) >> 25;
+        q = (h6 + q) >> 26;
+        q = (h7 + q) >> 25;
+        q = (h8 + q) >> 26;
+        q = (h9 + q) >> 25;
+        h0 += 19 * q;
+        int c;
+        c = h0 >> 26; h1 += c; h0 -= c << 26;
+        c = h1 >> 25; h2 += c; h1 -= c << 25;
+        c = h2 >> 26; h3 += c; h2 -= c << 26;
+        c = h3 >> 25; h4 += c; h3 -= c << 25;
+        c = h4 >> 26; h5 += c; h4 -= c << 26;
+        c = h5 >> 25; h6 += c; h5 -= c << 25;
+        c = h6 >> 26; h7 += c; h6 -= c << 26;
+        c = h7 >> 25; h8 += c; h7 -= c << 25;
+        c = h8 >> 26; h9 += c; h8 -= c << 26;
+        c = h9 >> 25; h9 -= c << 25;
+
+        h[0] = h0; h[1] = h1; h[2] = h2; h[3] = h3; h[4] = h4;
+        h[5] = h5; h[6] = h6; h[7] = h7; h[8] = h8; h[9] = h9;
+    }
+
+    /**
+     * Stores f as 32 little-endian bytes, fully reduced mod q. t is a scratch element.
+     */
+    static void tobytes(byte[] s, int off, int[] f, int[] t) {
+        reduce(t, f);
+        int h0 = t[0], h1 = t[1], h2 = t[2], h3 = t[3], h4 = t[4];
+        int h5 = t[5], h6 = t[6], h7 = t[7], h8 = t[8], h9 = t[9];
+        s[off] = (byte) h0;
+        s[off + 1] = (byte) (h0 >> 8);
+        s[off + 2] = (byte) (h0 >> 16);
+        s[off + 3] = (byte) ((h0 >> 24) | (h1 << 2));
+        s[off + 4] = (byte) (h1 >> 6);
+        s[off + 5] = (byte) (h1 >> 14);
+        s[off + 6] = (byte) ((h1 >> 22) | (h2 << 3));
+        s[off + 7] = (byte) (h2 >> 5);
+        s[off + 8] = (byte) (h2 >> 13);
+        s[off + 9] = (byte) ((h2 >> 21) | (h3 << 5));
+        s[off + 10] = (byte) (h3 >> 3);
+        s[off + 11] = (byte) (h3 >> 11);
+        s[off + 12] = (byte) ((h3 >> 19) | (h4 << 6));
+        s[off + 13] = (byte) (h4 >> 2);
+        s[off + 14] = (byte) (h4 >> 10);
+        s[off + 15] = (byte) (h4 >> 18);
+        s[off + 16] = (byte) h5;
+        s[off + 17] = (byte) (h5 >> 8);
+        s[off + 18] = (byte) (h5 >> 16);
+        s[off + 19] = (byte) ((h5 >> 24) | (h6 << 1));
+        s[off + 20] = (byte) (h6 >> 7);
+        s[off + 21] = (byte) (h6 >> 15);
+        s[off + 22] = (byte) ((h6 >> 23) | (h7 << 3));
+        s[off + 23] = (byte) (h7 >> 5);
+        s[off + 24] = (byte) (h7 >> 13);
+        s[off + 25] = (byte) ((h7 >> 21) | (h8 << 4));
+        s[off + 26] = (byte) (h8 >> 4);
+        s[off + 27] = (byte) (h8 >> 12);
+        s[off + 28] = (byte) ((h8 >> 20) | (h9 << 6));
+        s[off + 29] = (byte) (h9 >> 2);
+        s[off + 30] = (byte) (h9 >> 10);
+        s[off + 31] = (byte) (h9 >> 18);
+    }
+
+    /**
+     * @return 1 if the canonical value of f is odd ("negative" in the Ed25519 encoding), 0 otherwise. t is a
+     *         scratch element.
+     */
+    static int isnegative(int[] f, int[] t) {
+        reduce(t, f);
+        return t[0] & 1;
+    }
+
+    /**
+     * @return true if f is congruent to 0 mod q. t is a scratch element.
+     */
+    static boolean iszero(int[] f, int[] t) {
+        reduce(t, f);
+        int r = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            r |= t[i];
+        }
+        return r == 0;
+    }
+}
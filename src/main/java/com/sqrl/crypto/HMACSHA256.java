@@ -1,24 +1,267 @@
 package com.sqrl.crypto;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import com.sqrl.metrics.OperationMetrics;
+import com.sqrl.utils.SecretBuffer;
 
+/**
+ * HMAC-SHA256 over a per-thread SHA-256 MessageDigest. A javax.crypto.Mac would need a provider lookup, a new Mac
+ * and a SecretKeySpec for every key, and copies the key into arrays that cannot be wiped. Here nothing is looked up
+ * or allocated per call (apart from the result of the methods returning one), and the per-thread scratch is zeroed
+ * afterwards.
+ *
+ * String messages are hashed as UTF-8.
+ */
 public class HMACSHA256 {
+    private static final int BLOCK = 64;
+    private static final int LENGTH = 32;
+    private static final OperationMetrics.Operation HMAC = OperationMetrics.getDefault().operation("crypto.hmac");
+
     public static byte[] mac(byte[] keyBytes, String message) {
-        Mac mac;
+        byte[] out = new byte[LENGTH];
+        long start = System.nanoTime();
+        Scratch s = scratch.get();
+        try {
+            pad(s, keyBytes);
+            SHA256.updateUTF8(s.sha256, message);
+            finish(s, out, 0);
+        } finally {
+            s.wipe();
+            HMAC.record(start);
+        }
+        return out;
+    }
+
+    public static byte[] mac(byte[] keyBytes, byte[] message) {
+        byte[] out = new byte[LENGTH];
+        mac(keyBytes, message, 0, message.length, out, 0);
+        return out;
+    }
+
+    /**
+     * out[outOffset..outOffset+32) = HMAC-SHA256(keyBytes, message[offset..offset+length))
+     */
+    public static void mac(byte[] keyBytes, byte[] message, int offset, int length, byte[] out, int outOffset) {
+        long start = System.nanoTime();
+        Scratch s = scratch.get();
+        try {
+            pad(s, keyBytes);
+            s.sha256.update(message, offset, length);
+            finish(s, out, outOffset);
+        } finally {
+            s.wipe();
+            HMAC.record(start);
+        }
+    }
+
+    /**
+     * Puts HMAC-SHA256(keyBytes, the remaining bytes of message) into out. message ends up at its limit and out 32
+     * bytes further along.
+     */
+    public static void mac(byte[] keyBytes, ByteBuffer message, ByteBuffer out) {
+        long start = System.nanoTime();
+        Scratch s = scratch.get();
+        try {
+            pad(s, keyBytes);
+            s.sha256.update(message);
+            finish(s, s.result, 0);
+            out.put(s.result);
+        } finally {
+            s.wipe();
+            HMAC.record(start);
+        }
+    }
+
+    public static void mac(SecretBuffer key, String message, SecretBuffer out) {
+        long start = System.nanoTime();
+        Scratch s = scratch.get();
         try {
-            final SecretKeySpec secretKey = new SecretKeySpec(keyBytes, "HmacSHA256");
-            mac = Mac.getInstance("HmacSHA256");
-            mac.init(secretKey);
-            return mac.doFinal(message.getBytes());
-        } catch (final NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (final InvalidKeyException e) {
-            e.printStackTrace();
+            pad(s, key);
+            SHA256.updateUTF8(s.sha256, message);
+            finish(s, s.result, 0);
+            for (int i = 0; i < LENGTH; i++) {
+                out.put(i, s.result[i]);
+            }
+        } finally {
+            s.wipe();
+            HMAC.record(start);
         }
-        return null;
     }
+
+    /**
+     * out = HMAC-SHA256(key, message), computed directly on the SecretBuffers.
+     *
+     * @param key at most 64 bytes
+     * @param out at least 32 bytes
+     */
+    public static void mac(SecretBuffer key, byte[] message, SecretBuffer out) {
+        long start = System.nanoTime();
+        Scratch s = scratch.get();
+        try {
+            pad(s, key);
+            s.sha256.update(message);
+            finish(s, s.result, 0);
+            for (int i = 0; i < LENGTH; i++) {
+                out.put(i, s.result[i]);
+            }
+        } finally {
+            s.wipe();
+            HMAC.record(start);
+        }
+    }
+
+    /**
+     * @param key at most 64 bytes, it can be closed afterwards
+     * @return a KeyedMac for key, close it when done
+     */
+    public static KeyedMac keyed(SecretBuffer key) {
+        return new KeyedMac(key);
+    }
+
+    /**
+     * HMAC-SHA256 under one key for many messages. The padded key is hashed once, into an inner and an outer
+     * digest, and every mac() continues from clones of those. For short messages that halves the SHA-256 blocks
+     * per HMAC.
+     *
+     * Safe to use from several threads at once, but do not close it while one of them is still computing a mac.
+     * close() resets the digests that hold the hashed key.
+     */
+    public static final class KeyedMac implements Closeable {
+        private final MessageDigest inner;
+        private final MessageDigest outer;
+        private volatile boolean closed;
+
+        private KeyedMac(SecretBuffer key) {
+            Scratch s = scratch.get();
+            try {
+                pad(s, key);
+                inner = copy(s.sha256);
+                s.sha256.reset();
+                for (int i = 0; i < BLOCK; i++) {
+                    s.pad[i] ^= 0x36 ^ 0x5c;
+                }
+                s.sha256.update(s.pad);
+                outer = copy(s.sha256);
+            } finally {
+                s.wipe();
+            }
+        }
+
+        /**
+         * out = HMAC-SHA256(key, message)
+         *
+         * @param out at least 32 bytes
+         */
+        public void mac(String message, SecretBuffer out) {
+            if (closed) throw new IllegalStateException("keyed mac is closed");
+            long start = System.nanoTime();
+            Scratch s = scratch.get();
+            MessageDigest md = null;
+            try {
+                md = copy(inner);
+                SHA256.updateUTF8(md, message);
+                digest(md, s.inner, 0);
+                md = copy(outer);
+                md.update(s.inner);
+                digest(md, s.result, 0);
+                for (int i = 0; i < LENGTH; i++) {
+                    out.put(i, s.result[i]);
+                }
+            } finally {
+                if (md != null) md.reset();
+                s.wipe();
+                HMAC.record(start);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            inner.reset();
+            outer.reset();
+        }
+
+        private static MessageDigest copy(MessageDigest md) {
+            try {
+                return (MessageDigest) md.clone();
+            } catch (CloneNotSupportedException e) {
+                // the SHA-256 of every Java platform can be cloned
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * s.pad = key ^ ipad, and starts the inner hash with it. Keys longer than a block are hashed first.
+     */
+    private static void pad(Scratch s, byte[] key) {
+        byte[] k = key;
+        int length = key.length;
+        if (length > BLOCK) {
+            s.sha256.update(key);
+            digest(s.sha256, s.inner, 0);
+            k = s.inner;
+            length = LENGTH;
+        }
+        for (int i = 0; i < BLOCK; i++) {
+            s.pad[i] = (byte) ((i < length ? k[i] : 0) ^ 0x36);
+        }
+        s.sha256.update(s.pad);
+    }
+
+    private static void pad(Scratch s, SecretBuffer key) {
+        if (key.length() > BLOCK) throw new IllegalArgumentException("key longer than a block");
+        for (int i = 0; i < BLOCK; i++) {
+            s.pad[i] = (byte) ((i < key.length() ? key.get(i) : 0) ^ 0x36);
+        }
+        s.sha256.update(s.pad);
+    }
+
+    /**
+     * Ends the inner hash and writes SHA256((key ^ opad) || inner) to out[offset..offset+32)
+     */
+    private static void finish(Scratch s, byte[] out, int offset) {
+        digest(s.sha256, s.inner, 0);
+        for (int i = 0; i < BLOCK; i++) {
+            s.pad[i] ^= 0x36 ^ 0x5c;
+        }
+        s.sha256.update(s.pad);
+        s.sha256.update(s.inner);
+        digest(s.sha256, out, offset);
+    }
+
+    private static void digest(MessageDigest md, byte[] out, int offset) {
+        try {
+            md.digest(out, offset, LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Scratch {
+        final MessageDigest sha256 = SHA256.newDigest();
+        final byte[] pad = new byte[BLOCK];
+        final byte[] inner = new byte[LENGTH];
+        final byte[] result = new byte[LENGTH];
+
+        void wipe() {
+            // an exception may have left key material in the digest
+            sha256.reset();
+            Arrays.fill(pad, (byte) 0);
+            Arrays.fill(inner, (byte) 0);
+            Arrays.fill(result, (byte) 0);
+        }
+    }
+
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
 }
@@ -0,0 +1,131 @@
+package com.sqrl.crypto;
+
+/**
+ * Variable-time multi-scalar multiplication sum(s[k]*P[k]) for public inputs, used by batch verification.
+ *
+ * This is Pippenger's bucket method with signed digits: each scalar is recoded into radix-2^c digits in
+ * [-2^(c-1), 2^(c-1)), and per window every point is added into the bucket of its digit, after which the buckets are
+ * summed with a running sum. A window costs about count + 2^c additions instead of count full scalar
+ * multiplications, and all windows share a single chain of doublings.
+ */
+final class MultiScalarMult {
+    /** Scalars must be reduced mod l, which is below 2^253 */
+    private static final int SCALAR_BITS = 253;
+
+    private MultiScalarMult() {
+    }
+
+    /**
+     * @param points extended points, they are not modified
+     * @param scalars 32-byte little-endian scalars below 2^253
+     * @param count number of leading entries of points and scalars to use
+     * @return sum(scalars[k]*points[k])
+     */
+    static int[][] pippenger(int[][][] points, byte[][] scalars, int count) {
+        int c = window(count);
+        int windows = (SCALAR_BITS + c - 1) / c + 1;
+        int buckets = 1 << (c - 1);
+
+        int[][] digits = new int[count][];
+        for (int k = 0; k < count; k++) {
+            digits[k] = recode(scalars[k], c, windows);
+        }
+
+        int[][][] bucket = new int[buckets + 1][][];
+        for (int i = 1; i <= buckets; i++) {
+            bucket[i] = Curve25519.newpoint();
+        }
+        boolean[] used = new boolean[buckets + 1];
+        int[][] acc = Curve25519.newpoint();
+        int[][] sum = Curve25519.newpoint();
+        int[][] total = Curve25519.newpoint();
+        int[][] neg = Curve25519.newpoint();
+        int[][] t = Field25519.create(6);
+
+        Curve25519.identity(acc);
+        for (int j = windows - 1; j >= 0; j--) {
+            for (int i = 0; i < c && j != windows - 1; i++) {
+                Curve25519.doubling(acc, acc, t);
+            }
+
+            for (int i = 1; i <= buckets; i++) {
+                used[i] = false;
+            }
+            for (int k = 0; k < count; k++) {
+                int digit = digits[k][j];
+                if (digit == 0) continue;
+                int[][] P = points[k];
+                if (digit < 0) {
+                    Curve25519.negate(neg, P);
+                    P = neg;
+                    digit = -digit;
+                }
+                if (used[digit]) {
+                    Curve25519.edwards(bucket[digit], bucket[digit], P, t);
+                } else {
+                    Curve25519.copy(bucket[digit], P);
+                    used[digit] = true;
+                }
+            }
+
+            // total = sum(i*bucket[i]) = bucket[top] + (bucket[top] + bucket[top-1]) + ...
+            boolean started = false;
+            for (int i = buckets; i >= 1; i--) {
+                if (used[i]) {
+                    if (started) {
+                        Curve25519.edwards(sum, sum, bucket[i], t);
+                    } else {
+                        Curve25519.copy(sum, bucket[i]);
+                        Curve25519.identity(total);
+                        started = true;
+                    }
+                }
+                if (started) {
+                    Curve25519.edwards(total, total, sum, t);
+                }
+            }
+            if (started) {
+                Curve25519.edwards(acc, acc, total, t);
+            }
+        }
+        return acc;
+    }
+
+    /**
+     * Picks the window width with the lowest estimated number of point operations.
+     */
+    private static int window(int count) {
+        int best = 2;
+        long bestCost = Long.MAX_VALUE;
+        for (int c = 2; c <= 16; c++) {
+            long windows = (SCALAR_BITS + c - 1) / c + 1;
+            long cost = windows * (count + (2L << (c - 1)));
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits s into signed radix-2^c digits in [-2^(c-1), 2^(c-1)), least significant first.
+     */
+    static int[] recode(byte[] s, int c, int windows) {
+        int[] digits = new int[windows];
+        int half = 1 << (c - 1);
+        int carry = 0;
+        for (int j = 0; j < windows; j++) {
+            int v = carry;
+            for (int k = 0; k < c; k++) {
+                int bit = j * c + k;
+                if (bit < 8 * s.length) {
+                    v += ((s[bit >> 3] >> (bit & 7)) & 1) << k;
+                }
+            }
+            carry = v >= half ? 1 : 0;
+            digits[j] = v - (carry << c);
+        }
+        return digits;
+    }
+}
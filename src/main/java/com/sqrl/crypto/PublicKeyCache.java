@@ -0,0 +1,212 @@
+package com.sqrl.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, concurrent cache of decoded public keys for Curve25519.checkvalid().
+ *
+ * Decoding a public key costs a square root before any real verification work starts. SQRL users sign in to the
+ * same site with the same per-site key over and over, so the decoded (negated) point is kept here. Once a key has
+ * been used hotThreshold times, a table of its odd multiples for a wider sliding window is kept as well, so the
+ * [h]A half of the verification needs fewer additions.
+ *
+ * Eviction is frequency-aware (TinyLFU): a count-min sketch estimates how often each key has been asked for
+ * lately, including keys that are not cached. When the cache is full a new key is only admitted if it is more
+ * popular than the least popular of a few randomly sampled residents, which is then evicted. The sketch is halved
+ * periodically so that popularity ages out.
+ */
+public class PublicKeyCache {
+    /** Sliding window width used for hot keys, their table holds 32 odd multiples */
+    static final int HOT_WINDOW = 7;
+
+    /** Number of residents looked at when picking an eviction victim */
+    private static final int SAMPLES = 8;
+
+    private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+    static class Entry {
+        /** the decoded public key A, negated */
+        final int[][] negA;
+        final AtomicInteger uses = new AtomicInteger();
+        /** odd multiples of negA for HOT_WINDOW, null until the key is hot */
+        volatile int[][][] table;
+
+        Entry(int[][] negA) {
+            this.negA = negA;
+        }
+    }
+
+    private final int capacity;
+    private final int hotThreshold;
+    private final ConcurrentHashMap<ByteBuffer, Entry> entries;
+    private final AtomicReferenceArray<ByteBuffer> slots;
+    private final AtomicInteger slotsUsed = new AtomicInteger();
+    private final Random random = new Random();
+
+    private final AtomicIntegerArray sketch;
+    private final int sketchWidth;
+    private final AtomicInteger sketchAdditions = new AtomicInteger();
+    private final int sketchResetAt;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param capacity maximum number of public keys to keep
+     * @param hotThreshold number of uses after which a key also gets a precomputed window table
+     */
+    public PublicKeyCache(int capacity, int hotThreshold) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.hotThreshold = hotThreshold;
+        this.entries = new ConcurrentHashMap<ByteBuffer, Entry>(capacity * 4 / 3 + 1);
+        this.slots = new AtomicReferenceArray<ByteBuffer>(capacity);
+
+        int width = Integer.highestOneBit(Math.max(16, capacity * 4) - 1) << 1;
+        this.sketchWidth = width;
+        this.sketch = new AtomicIntegerArray(SEEDS.length * width);
+        this.sketchResetAt = 10 * width;
+    }
+
+    /**
+     * @return the entry for the 32-byte public key pk, decoding it on a miss. On a miss the returned entry may or
+     *         may not have been admitted to the cache.
+     * @throws Exception if pk does not decode to a point on the curve
+     */
+    Entry get(byte[] pk) throws Exception {
+        ByteBuffer key = ByteBuffer.wrap(pk);
+        int frequency = increment(key);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            if (entry.uses.incrementAndGet() == hotThreshold) {
+                entry.table = Curve25519.oddmultiples(entry.negA, HOT_WINDOW);
+            }
+            return entry;
+        }
+
+        misses.incrementAndGet();
+        int[][] negA = Curve25519.decodepoint(pk);
+        Curve25519.negate(negA, negA);
+        entry = new Entry(negA);
+        Entry admitted = admit(ByteBuffer.wrap(pk.clone()), entry, frequency);
+        return admitted != null ? admitted : entry;
+    }
+
+    private Entry admit(ByteBuffer key, Entry entry, int frequency) {
+        int slot = -1;
+        ByteBuffer victim = null;
+        if (slotsUsed.get() < capacity) {
+            int i = slotsUsed.getAndIncrement();
+            if (i < capacity) slot = i;
+        }
+        if (slot < 0) {
+            int victimFrequency = Integer.MAX_VALUE;
+            for (int n = 0; n < SAMPLES; n++) {
+                int i = random.nextInt(capacity);
+                ByteBuffer resident = slots.get(i);
+                int f = resident == null ? -1 : estimate(resident);
+                if (f < victimFrequency) {
+                    victimFrequency = f;
+                    victim = resident;
+                    slot = i;
+                }
+            }
+            // not popular enough to displace anyone
+            if (victimFrequency >= frequency) return null;
+        }
+
+        // somebody else got to this slot first, just don't cache this time
+        if (!slots.compareAndSet(slot, victim, key)) return null;
+        if (victim != null && entries.remove(victim) != null) {
+            evictions.incrementAndGet();
+        }
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            slots.compareAndSet(slot, key, null);
+            return existing;
+        }
+        // another thread may have evicted key from its slot before the entry was in, its remove() then missed it.
+        // An eviction after this check does see the entry.
+        if (slots.get(slot) != key) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 17;
+        return row * sketchWidth + (h & (sketchWidth - 1));
+    }
+
+    /**
+     * Counts one more use of key and returns its estimated recent frequency.
+     */
+    private int increment(ByteBuffer key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < SEEDS.length; row++) {
+            min = Math.min(min, sketch.incrementAndGet(index(hash, row)));
+        }
+        if (sketchAdditions.incrementAndGet() == sketchResetAt) {
+            // age everything, racing increments may get lost which doesn't matter for an estimate
+            for (int i = sketch.length() - 1; i >= 0; --i) {
+                sketch.set(i, sketch.get(i) >>> 1);
+            }
+            sketchAdditions.set(0);
+        }
+        return min;
+    }
+
+    private int estimate(ByteBuffer key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < SEEDS.length; row++) {
+            min = Math.min(min, sketch.get(index(hash, row)));
+        }
+        return min;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public void clear() {
+        entries.clear();
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i, null);
+        }
+        slotsUsed.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[size=" + size() + ", capacity=" + capacity + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
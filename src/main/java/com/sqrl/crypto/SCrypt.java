@@ -1,26 +1,53 @@
 package com.sqrl.crypto;
 
 import java.security.GeneralSecurityException;
-import java.text.DecimalFormat;
 
 import com.sqrl.SQRLPasswordParameters;
+import com.sqrl.exception.SCryptAbortedException;
+import com.sqrl.metrics.OperationMetrics;
 
 public class SCrypt {
-    private static final DecimalFormat df = new DecimalFormat("#.##");
+    private static final OperationMetrics.Operation SCRYPT = OperationMetrics.getDefault().operation("crypto.scrypt");
     
     public static byte[] scrypt(String password, byte[] passwordSalt, SQRLPasswordParameters passwordParameters) {
         if ( passwordSalt == null ) throw new IllegalArgumentException("password salt is null");
         if ( passwordParameters == null ) throw new IllegalArgumentException("password parameters are null");
-        int scryptN = (1 << passwordParameters.getHashN());
         try {
-            long startTime = System.currentTimeMillis();
-            byte[] scryptResult = com.lambdaworks.crypto.SCrypt.scrypt(password.getBytes(), 
-                                               passwordSalt, scryptN, passwordParameters.getHashR(), 
-                                               passwordParameters.getHashP(), passwordParameters.getHashLength());
-            long elapsedTime = System.currentTimeMillis() - startTime;
-//            System.out.println("SCrypt (N = " + scryptN + ") took " + df.format(elapsedTime/1000.0) + " seconds.");
+            long startTime = System.nanoTime();
+            byte[] scryptResult = SCryptScheduler.getDefault().scrypt(password.getBytes(), passwordSalt, 
+                                                                      passwordParameters);
+            SCRYPT.recordElapsed(System.nanoTime() - startTime);
             return scryptResult;
         } catch (GeneralSecurityException e) {
+            SCRYPT.fail();
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Like scrypt(password, passwordSalt, passwordParameters), but gives up when token is cancelled or expires, or
+     * the calling thread is interrupted, instead of running to the end.
+     * 
+     * @param token cancellation and deadline, or null
+     * @param progress notified as the computation progresses, or null
+     * @throws SCryptAbortedException - if the computation was abandoned
+     */
+    public static byte[] scrypt(String password, byte[] passwordSalt, SQRLPasswordParameters passwordParameters,
+                                CancellationToken token, SCryptProgress progress) throws SCryptAbortedException {
+        if ( passwordSalt == null ) throw new IllegalArgumentException("password salt is null");
+        if ( passwordParameters == null ) throw new IllegalArgumentException("password parameters are null");
+        try {
+            long startTime = System.nanoTime();
+            byte[] scryptResult = SCryptScheduler.getDefault().scrypt(password.getBytes(), passwordSalt, 
+                                                                      passwordParameters, token, progress);
+            SCRYPT.recordElapsed(System.nanoTime() - startTime);
+            return scryptResult;
+        } catch (SCryptAbortedException e) {
+            SCRYPT.fail();
+            throw e;
+        } catch (GeneralSecurityException e) {
+            SCRYPT.fail();
             e.printStackTrace();
         }
         return null;
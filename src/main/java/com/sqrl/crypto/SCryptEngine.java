@@ -0,0 +1,451 @@
+package com.sqrl.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sqrl.exception.SCryptAbortedException;
+
+/**
+ * A pure-Java scrypt (Percival, "Stronger key derivation via sequential memory-hard functions", RFC 7914) that runs
+ * the p independent lanes of ROMix in parallel.
+ *
+ * scrypt is PBKDF2(password, salt) into p blocks of 128*r bytes, ROMix on each block, and PBKDF2(password, blocks)
+ * into the key. The p ROMix runs do not depend on each other, so they are spread over up to maxParallelism
+ * workers. Each worker needs its own 128*r*N byte table, so the number of workers is also capped by the memory
+ * budget; when the budget only allows one the lanes run one after the other on the calling thread, just like
+ * lambdaworks. The output is identical to com.lambdaworks.crypto.SCrypt.
+ *
+ * ROMix works on int[] words instead of byte[], which saves the byte shuffling of the lambdaworks pure-Java path.
+ * With an SCryptScratchPool the tables are reused across calls instead of being allocated for every one.
+ */
+public class SCryptEngine {
+    private static final SCryptEngine DEFAULT = new SCryptEngine(newPool(Runtime.getRuntime().availableProcessors()),
+            Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 4,
+            new SCryptScratchPool(Runtime.getRuntime().maxMemory() / 4));
+
+    private final ExecutorService executor;
+    private final int maxParallelism;
+    private final long memoryBudget;
+    private final SCryptScratchPool scratchPool;
+
+    /**
+     * @param executor where lanes other than the first run
+     * @param maxParallelism maximum number of lanes running at once
+     * @param memoryBudget maximum number of bytes of ROMix tables in use at once by a single scrypt call
+     */
+    public SCryptEngine(ExecutorService executor, int maxParallelism, long memoryBudget) {
+        this(executor, maxParallelism, memoryBudget, null);
+    }
+
+    /**
+     * @param executor where lanes other than the first run
+     * @param maxParallelism maximum number of lanes running at once
+     * @param memoryBudget maximum number of bytes of ROMix tables in use at once by a single scrypt call
+     * @param scratchPool where to take ROMix tables from and return them to, or null to allocate every time
+     */
+    public SCryptEngine(ExecutorService executor, int maxParallelism, long memoryBudget,
+            SCryptScratchPool scratchPool) {
+        if (executor == null) throw new IllegalArgumentException("executor is null");
+        if (maxParallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        this.executor = executor;
+        this.maxParallelism = maxParallelism;
+        this.memoryBudget = memoryBudget;
+        this.scratchPool = scratchPool;
+    }
+
+    /**
+     * @return the engine used by SCrypt.scrypt(), as parallel as there are cores, within a quarter of the max heap,
+     *         pooling up to another quarter of the max heap of scratch between calls
+     */
+    public static SCryptEngine getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a ForkJoinPool with the given parallelism when the JVM has one (Java 7+), otherwise a fixed thread
+     *         pool of that size. Either way its threads are daemons.
+     */
+    static ExecutorService newPool(int parallelism) {
+        try {
+            Class<?> forkJoinPool = Class.forName("java.util.concurrent.ForkJoinPool");
+            return (ExecutorService) forkJoinPool.getConstructor(int.class).newInstance(parallelism);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "scrypt");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public SCryptScratchPool getScratchPool() {
+        return scratchPool;
+    }
+
+    /**
+     * @return number of lanes this engine would run at once for the given parameters
+     */
+    public int parallelism(int N, int r, int p) {
+        long perLane = 128L * r * N;
+        long byMemory = Math.max(1, memoryBudget / perLane);
+        return (int) Math.max(1, Math.min(Math.min(p, maxParallelism), byMemory));
+    }
+
+    /**
+     * @param passwd password
+     * @param salt salt
+     * @param N CPU cost, a power of 2 greater than 1
+     * @param r memory cost
+     * @param p parallelization
+     * @param dkLen length of the derived key in bytes
+     * @return the derived key
+     * @throws GeneralSecurityException if HmacSHA256 is not available
+     */
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) throws GeneralSecurityException {
+        return scrypt(passwd, salt, N, r, p, dkLen, parallelism(N, r, p));
+    }
+
+    /**
+     * scrypt() that can be abandoned: the lanes check token (and the interrupt status of the calling thread) every
+     * few hundred ROMix blocks, stop when asked to, and the scratch memory is wiped and released.
+     * 
+     * @param token cancellation and deadline, or null
+     * @param progress notified as ROMix blocks get done, or null
+     * @throws SCryptAbortedException if token was cancelled or expired, or the calling thread was interrupted
+     */
+    public byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen, CancellationToken token,
+            SCryptProgress progress) throws GeneralSecurityException, SCryptAbortedException {
+        return scrypt(passwd, salt, N, r, p, dkLen, parallelism(N, r, p), new Control(token, progress, 2L * N * p));
+    }
+
+    /**
+     * scrypt() with at most workers lanes running at once, for callers that budget the memory themselves
+     */
+    byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen, int workers)
+            throws GeneralSecurityException {
+        try {
+            return scrypt(passwd, salt, N, r, p, dkLen, workers, null);
+        } catch (SCryptAbortedException e) {
+            // cannot happen without a Control
+            throw new IllegalStateException(e);
+        }
+    }
+
+    byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen, int workers, Control control)
+            throws GeneralSecurityException, SCryptAbortedException {
+        if (N < 2 || (N & (N - 1)) != 0) throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        if (r < 1 || p < 1) throw new IllegalArgumentException("r and p must be positive");
+        if (N > Integer.MAX_VALUE / 128 / r) throw new IllegalArgumentException("N is too large");
+        if (r > Integer.MAX_VALUE / 128 / p) throw new IllegalArgumentException("r * p is too large");
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(passwd, "HmacSHA256"));
+
+        int laneInts = 32 * r;
+        byte[] Bbytes = new byte[128 * r * p];
+        int[] B = new int[laneInts * p];
+        try {
+            pbkdf2(mac, salt, 1, Bbytes, Bbytes.length);
+            decode(B, Bbytes);
+
+            workers = Math.max(1, Math.min(workers, p));
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int w = 1; w < workers; w++) {
+                futures.add(executor.submit(new Lanes(scratchPool, B, w, workers, N, r, p, control)));
+            }
+            // the calling thread takes its share instead of just waiting
+            new Lanes(scratchPool, B, 0, workers, N, r, p, control).call();
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // with a Control the lanes stop at their next check, without one they finish, either way
+                        // the interrupt is restored
+                        interrupted = true;
+                        if (control != null) control.abort(SCryptAbortedException.Reason.INTERRUPTED);
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (control != null && control.reason != null) throw new SCryptAbortedException(control.reason);
+
+            encode(Bbytes, B);
+            byte[] DK = new byte[dkLen];
+            pbkdf2(mac, Bbytes, 1, DK, dkLen);
+            return DK;
+        } finally {
+            // be paranoid, the intermediate blocks are as good as the derived key
+            Arrays.fill(Bbytes, (byte) 0);
+            Arrays.fill(B, 0);
+        }
+    }
+
+    /**
+     * Shared by the lanes of one cancellable call: counts the ROMix blocks done, reports progress and decides
+     * when to stop.
+     */
+    static final class Control {
+        /** number of ROMix blocks between checks */
+        static final int INTERVAL = 256;
+
+        private final CancellationToken token;
+        private final SCryptProgress progress;
+        private final Thread caller = Thread.currentThread();
+        private final long total;
+        private final AtomicLong done = new AtomicLong();
+        private final AtomicInteger reported = new AtomicInteger();
+        volatile SCryptAbortedException.Reason reason;
+
+        Control(CancellationToken token, SCryptProgress progress, long total) {
+            this.token = token;
+            this.progress = progress;
+            this.total = total;
+        }
+
+        void abort(SCryptAbortedException.Reason why) {
+            if (reason == null) reason = why;
+        }
+
+        /**
+         * Records steps more blocks done.
+         * 
+         * @return false if the lanes should stop
+         */
+        boolean check(int steps) {
+            long now = done.addAndGet(steps);
+            if (progress != null) {
+                int percent = (int) (now * 100 / total);
+                int last = reported.get();
+                if (percent > last && reported.compareAndSet(last, percent)) {
+                    progress.progress(Math.min(1.0, (double) now / total));
+                }
+            }
+            if (token != null) {
+                if (token.isCancelled()) abort(SCryptAbortedException.Reason.CANCELLED);
+                else if (token.isExpired()) abort(SCryptAbortedException.Reason.DEADLINE_EXCEEDED);
+            }
+            if (caller.isInterrupted()) abort(SCryptAbortedException.Reason.INTERRUPTED);
+            return reason == null;
+        }
+    }
+
+    /**
+     * Runs ROMix on lanes first, first+step, first+2*step, ... of B with a table of its own.
+     */
+    private static final class Lanes implements Callable<Void> {
+        private final SCryptScratchPool scratchPool;
+        private final int[] B;
+        private final int first, step, N, r, p;
+        private final Control control;
+
+        Lanes(SCryptScratchPool scratchPool, int[] B, int first, int step, int N, int r, int p, Control control) {
+            this.scratchPool = scratchPool;
+            this.B = B;
+            this.first = first;
+            this.step = step;
+            this.N = N;
+            this.r = r;
+            this.p = p;
+            this.control = control;
+        }
+
+        @Override
+        public Void call() {
+            SCryptScratchPool.Scratch scratch;
+            if (scratchPool != null) {
+                scratch = scratchPool.acquire(N, r);
+            } else {
+                scratch = new SCryptScratchPool.Scratch(N, r);
+            }
+            try {
+                for (int i = first; i < p; i += step) {
+                    if (!romix(B, i * 32 * r, r, N, scratch.V, scratch.XY, control)) break;
+                }
+            } finally {
+                if (scratchPool != null) {
+                    scratchPool.release(scratch);
+                } else {
+                    Arrays.fill(scratch.V, 0);
+                    Arrays.fill(scratch.XY, 0);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 of the password mac is keyed with, writes dkLen bytes to DK
+     */
+    static void pbkdf2(Mac mac, byte[] salt, int c, byte[] DK, int dkLen) throws GeneralSecurityException {
+        int hLen = mac.getMacLength();
+        byte[] U = new byte[hLen];
+        byte[] T = new byte[hLen];
+        byte[] block = new byte[salt.length + 4];
+        System.arraycopy(salt, 0, block, 0, salt.length);
+
+        int blocks = (dkLen + hLen - 1) / hLen;
+        for (int i = 1; i <= blocks; i++) {
+            block[salt.length] = (byte) (i >>> 24);
+            block[salt.length + 1] = (byte) (i >>> 16);
+            block[salt.length + 2] = (byte) (i >>> 8);
+            block[salt.length + 3] = (byte) i;
+            mac.update(block);
+            mac.doFinal(U, 0);
+            System.arraycopy(U, 0, T, 0, hLen);
+            for (int j = 1; j < c; j++) {
+                mac.update(U);
+                mac.doFinal(U, 0);
+                for (int k = 0; k < hLen; k++) {
+                    T[k] ^= U[k];
+                }
+            }
+            System.arraycopy(T, 0, DK, (i - 1) * hLen, Math.min(hLen, dkLen - (i - 1) * hLen));
+        }
+    }
+
+    /**
+     * ROMix on the 32*r words of B starting at off. V holds 32*r*N words, XY 64*r+16.
+     */
+    static void romix(int[] B, int off, int r, int N, int[] V, int[] XY) {
+        romix(B, off, r, N, V, XY, null);
+    }
+
+    /**
+     * @return false if control stopped the computation, B is left half-done then
+     */
+    private static boolean romix(int[] B, int off, int r, int N, int[] V, int[] XY, Control control) {
+        int laneInts = 32 * r;
+        int X = 0;
+        int Y = laneInts;
+        int interval = Math.min(N, Control.INTERVAL);
+        System.arraycopy(B, off, XY, X, laneInts);
+        for (int i = 0; i < N; i++) {
+            System.arraycopy(XY, X, V, i * laneInts, laneInts);
+            blockmix(XY, X, Y, r);
+            if (control != null && (i + 1) % interval == 0 && !control.check(interval)) return false;
+        }
+        for (int i = 0; i < N; i++) {
+            // integerify: the first word of the last 64-byte block
+            int j = XY[X + (2 * r - 1) * 16] & (N - 1);
+            int v = j * laneInts;
+            for (int k = 0; k < laneInts; k++) {
+                XY[X + k] ^= V[v + k];
+            }
+            blockmix(XY, X, Y, r);
+            if (control != null && (i + 1) % interval == 0 && !control.check(interval)) return false;
+        }
+        System.arraycopy(XY, X, B, off, laneInts);
+        return true;
+    }
+
+    /**
+     * BlockMix-Salsa20/8 of the 2*r blocks at XY[X], using XY[Y] and the last 16 words of XY as scratch.
+     */
+    private static void blockmix(int[] XY, int X, int Y, int r) {
+        int x = XY.length - 16;
+        System.arraycopy(XY, X + (2 * r - 1) * 16, XY, x, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                XY[x + k] ^= XY[X + i * 16 + k];
+            }
+            salsa208(XY, x);
+            // even blocks go to the first half, odd ones to the second
+            int to = Y + ((i & 1) * r + (i >> 1)) * 16;
+            System.arraycopy(XY, x, XY, to, 16);
+        }
+        System.arraycopy(XY, Y, XY, X, 32 * r);
+    }
+
+    /**
+     * Salsa20/8 core on the 16 words at B[off], in place
+     */
+    static void salsa208(int[] B, int off) {
+        int x0 = B[off], x1 = B[off + 1], x2 = B[off + 2], x3 = B[off + 3];
+        int x4 = B[off + 4], x5 = B[off + 5], x6 = B[off + 6], x7 = B[off + 7];
+        int x8 = B[off + 8], x9 = B[off + 9], x10 = B[off + 10], x11 = B[off + 11];
+        int x12 = B[off + 12], x13 = B[off + 13], x14 = B[off + 14], x15 = B[off + 15];
+        for (int i = 8; i > 0; i -= 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        B[off] += x0; B[off + 1] += x1; B[off + 2] += x2; B[off + 3] += x3;
+        B[off + 4] += x4; B[off + 5] += x5; B[off + 6] += x6; B[off + 7] += x7;
+        B[off + 8] += x8; B[off + 9] += x9; B[off + 10] += x10; B[off + 11] += x11;
+        B[off + 12] += x12; B[off + 13] += x13; B[off + 14] += x14; B[off + 15] += x15;
+    }
+
+    /**
+     * ints = little-endian words of bytes
+     */
+    static void decode(int[] ints, byte[] bytes) {
+        for (int i = 0; i < ints.length; i++) {
+            int b = 4 * i;
+            ints[i] = (bytes[b] & 0xff) | (bytes[b + 1] & 0xff) << 8 | (bytes[b + 2] & 0xff) << 16
+                    | (bytes[b + 3] & 0xff) << 24;
+        }
+    }
+
+    /**
+     * bytes = ints as little-endian words
+     */
+    static void encode(byte[] bytes, int[] ints) {
+        for (int i = 0; i < ints.length; i++) {
+            int b = 4 * i;
+            bytes[b] = (byte) ints[i];
+            bytes[b + 1] = (byte) (ints[i] >>> 8);
+            bytes[b + 2] = (byte) (ints[i] >>> 16);
+            bytes[b + 3] = (byte) (ints[i] >>> 24);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.sqrl.crypto;
+
+/**
+ * Receives progress of a running scrypt computation.
+ */
+public interface SCryptProgress {
+    /**
+     * Called about once per percent of ROMix blocks done, from whichever thread is running a lane. Must be quick
+     * and must not throw.
+     * 
+     * @param fraction fraction of the ROMix blocks done, from 0 to 1
+     */
+    void progress(double fraction);
+}
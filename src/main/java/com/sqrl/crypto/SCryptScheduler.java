@@ -0,0 +1,288 @@
+package com.sqrl.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sqrl.SQRLPasswordParameters;
+import com.sqrl.exception.SCryptAbortedException;
+import com.sqrl.metrics.SCryptTimings;
+
+/**
+ * Admits concurrent scrypt calls against a process-wide memory budget.
+ *
+ * Every call needs 128*r*N bytes per lane it runs at once, plus 128*r*p bytes for the lane blocks. Without
+ * coordination a burst of password changes and exports asks for more than the heap holds. Here each call first
+ * acquires its footprint from a fair semaphore counting kilobytes of budget, so calls run concurrently as long as
+ * they fit and queue in arrival order (FIFO, a large call is not starved by a stream of small ones) when they
+ * don't. A call whose lanes would not fit in the budget all at once is given fewer parallel lanes. One that does not
+ * fit even with a single lane waits for the whole budget and runs alone, after the idle scratch of the engine's pool
+ * has been dropped, since nothing else then keeps its table within the budget.
+ */
+public class SCryptScheduler {
+    private static final SCryptScheduler DEFAULT = new SCryptScheduler(SCryptEngine.getDefault(),
+            Runtime.getRuntime().maxMemory() / 2);
+
+    /** how often a queued cancellable call looks at its token, in nanoseconds */
+    private static final long ADMISSION_POLL = 50 * 1000000L;
+
+    private final SCryptEngine engine;
+    private final int budgetKB;
+    private final Semaphore permits;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param engine engine to run admitted calls on
+     * @param memoryBudget bytes of scrypt memory all calls together may use at once
+     */
+    public SCryptScheduler(SCryptEngine engine, long memoryBudget) {
+        if (engine == null) throw new IllegalArgumentException("engine is null");
+        if (memoryBudget < 1024) throw new IllegalArgumentException("memory budget must be at least 1KB");
+        this.engine = engine;
+        this.budgetKB = (int) Math.min(Integer.MAX_VALUE, memoryBudget / 1024);
+        this.permits = new Semaphore(budgetKB, true);
+    }
+
+    /**
+     * @return the scheduler used by SCrypt.scrypt(), on the default engine with half the max heap as budget
+     */
+    public static SCryptScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Runs scrypt once enough of the memory budget is free, waiting in line behind earlier calls.
+     * 
+     * @return the derived key, see SCryptEngine.scrypt()
+     * @throws GeneralSecurityException if HmacSHA256 is not available
+     */
+    public byte[] scrypt(byte[] passwd, byte[] salt, SQRLPasswordParameters parameters)
+            throws GeneralSecurityException {
+        int N = 1 << parameters.getHashN();
+        int r = parameters.getHashR();
+        int p = parameters.getHashP();
+        int workers = workers(N, r, p);
+        int held = admit(N, r, p, workers);
+        try {
+            long run = System.nanoTime();
+            byte[] key = engine.scrypt(passwd, salt, N, r, p, parameters.getHashLength(), workers);
+            record(parameters, workers, System.nanoTime() - run);
+            return key;
+        } finally {
+            permits.release(held);
+        }
+    }
+
+    /**
+     * Runs scrypt like scrypt() does, admitted the same way and with as many lanes at once, for benchmarks. The call
+     * is not recorded in SCryptTimings.
+     * 
+     * @return nanoseconds the engine took, without the wait for memory
+     * @throws GeneralSecurityException if HmacSHA256 is not available
+     */
+    public long time(byte[] passwd, byte[] salt, int N, int r, int p) throws GeneralSecurityException {
+        int workers = workers(N, r, p);
+        int held = admit(N, r, p, workers);
+        try {
+            long run = System.nanoTime();
+            engine.scrypt(passwd, salt, N, r, p, 32, workers);
+            return System.nanoTime() - run;
+        } finally {
+            permits.release(held);
+        }
+    }
+
+    /**
+     * Waits in line until the footprint of a call fits in the budget, without giving up on an interrupt
+     * 
+     * @return the permits taken, to be released once the call is done
+     */
+    private int admit(int N, int r, int p, int workers) {
+        int kb = footprintKB(N, r, p, workers);
+        int held = Math.min(kb, budgetKB);
+
+        long start = System.nanoTime();
+        if (!tryAcquireInLine(held)) {
+            permits.acquireUninterruptibly(held);
+            recordWait(System.nanoTime() - start);
+        }
+        admitted.incrementAndGet();
+        if (kb > budgetKB) runAlone();
+        return held;
+    }
+
+    /**
+     * scrypt() that can be abandoned while it waits for memory as well as while it runs, see
+     * SCryptEngine.scrypt(passwd, salt, N, r, p, dkLen, token, progress).
+     * 
+     * @param token cancellation and deadline, or null
+     * @param progress notified as ROMix blocks get done, or null
+     * @throws SCryptAbortedException if token was cancelled or expired, or the calling thread was interrupted
+     */
+    public byte[] scrypt(byte[] passwd, byte[] salt, SQRLPasswordParameters parameters, CancellationToken token,
+            SCryptProgress progress) throws GeneralSecurityException, SCryptAbortedException {
+        int N = 1 << parameters.getHashN();
+        int r = parameters.getHashR();
+        int p = parameters.getHashP();
+        int workers = workers(N, r, p);
+        int kb = footprintKB(N, r, p, workers);
+        int held = Math.min(kb, budgetKB);
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(held, 0, TimeUnit.NANOSECONDS)) {
+                // wait in line, but look at the token every now and then
+                while (!permits.tryAcquire(held, Math.min(ADMISSION_POLL, token == null ? Long.MAX_VALUE
+                        : token.remainingNanos()), TimeUnit.NANOSECONDS)) {
+                    if (token != null && token.isCancelled()) {
+                        throw new SCryptAbortedException(SCryptAbortedException.Reason.CANCELLED);
+                    }
+                    if (token != null && token.isExpired()) {
+                        throw new SCryptAbortedException(SCryptAbortedException.Reason.DEADLINE_EXCEEDED);
+                    }
+                }
+                recordWait(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SCryptAbortedException(SCryptAbortedException.Reason.INTERRUPTED);
+        }
+        admitted.incrementAndGet();
+        try {
+            if (kb > budgetKB) runAlone();
+            long run = System.nanoTime();
+            byte[] key = engine.scrypt(passwd, salt, N, r, p, parameters.getHashLength(), workers,
+                    new SCryptEngine.Control(token, progress, 2L * N * p));
+            record(parameters, workers, System.nanoTime() - run);
+            return key;
+        } finally {
+            permits.release(held);
+        }
+    }
+
+    /**
+     * @return number of lanes a call with these parameters runs at once, so that its footprint fits in the budget
+     */
+    public int workers(int N, int r, int p) {
+        long table = 128L * r * N;
+        long blocks = 128L * r * p;
+        long fit = (budgetKB * 1024L - blocks) / table;
+        return (int) Math.max(1, Math.min(engine.parallelism(N, r, p), fit));
+    }
+
+    /**
+     * @return memory a call will hold, in KB rounded up. It can be more than the whole budget, such a call holds all
+     *         of the budget and runs alone.
+     */
+    int footprintKB(int N, int r, int p, int workers) {
+        long bytes = 128L * r * N * workers + 128L * r * p;
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + 1023) / 1024);
+    }
+
+    /**
+     * For a call larger than the budget, once it holds all of it: no other call is running, so the idle scratch of
+     * the engine's pool is the only other scrypt memory left, drop that too
+     */
+    private void runAlone() {
+        SCryptScratchPool scratchPool = engine.getScratchPool();
+        if (scratchPool != null) scratchPool.clear();
+    }
+
+    /**
+     * Takes the permits if they are free and nobody is queued for them. Unlike the timed tryAcquire(), the untimed one
+     * barges ahead of queued calls even on a fair semaphore, which would let small calls starve a large one.
+     */
+    private boolean tryAcquireInLine(int held) {
+        try {
+            return permits.tryAcquire(held, 0, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            // not ours to handle, acquireUninterruptibly() waits in line and keeps the interrupt status
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Feeds the time the engine took for a call to SCryptTimings, see SCryptMetrics.findDrift(). The wait for memory
+     * is left out, it says nothing about how fast scrypt runs here.
+     */
+    private static void record(SQRLPasswordParameters parameters, int workers, long nanos) {
+        int p = parameters.getHashP();
+        SCryptTimings.record(parameters.getHashN(), parameters.getHashR(), p, Math.min(workers, p), nanos);
+    }
+
+    private void recordWait(long nanos) {
+        waited.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    public SCryptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return memory budget in bytes
+     */
+    public long getMemoryBudget() {
+        return budgetKB * 1024L;
+    }
+
+    /**
+     * @return bytes of the budget currently held by running calls
+     */
+    public long getMemoryInUse() {
+        return (budgetKB - (long) permits.availablePermits()) * 1024L;
+    }
+
+    /**
+     * @return (estimated) number of calls waiting for memory
+     */
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return number of calls admitted so far
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * @return number of calls that had to wait before being admitted
+     */
+    public long getWaited() {
+        return waited.get();
+    }
+
+    /**
+     * @return average wait of the calls that had to wait, in milliseconds
+     */
+    public double getAverageWait() {
+        long n = waited.get();
+        return n == 0 ? 0 : totalWaitNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * @return longest wait so far, in milliseconds
+     */
+    public double getMaxWait() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[budget=" + getMemoryBudget() + ", inUse=" + getMemoryInUse()
+                + ", queued=" + getQueueLength() + ", admitted=" + getAdmitted() + ", waited=" + getWaited()
+                + ", averageWait=" + getAverageWait() + "ms, maxWait=" + getMaxWait() + "ms]";
+    }
+}
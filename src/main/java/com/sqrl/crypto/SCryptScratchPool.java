@@ -0,0 +1,163 @@
+package com.sqrl.crypto;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of ROMix scratch memory, so that repeated scrypt calls reuse their 128*r*N byte tables instead of
+ * allocating (and collecting) a new one every time.
+ *
+ * Scratch is pooled per (N, r). It is wiped when released, and only kept if the total size of the pooled scratch
+ * stays within maxPooledBytes; to make room for a new (N, r) idle scratch of other parameters is dropped first.
+ * Scratch in use is not counted, so a burst of concurrent calls beyond what the pool holds still works, it just
+ * allocates like before. Before allocating, idle scratch is dropped until the new table would fit within
+ * maxPooledBytes next to what stays idle (all of it, for a table larger than that), so idle tables never crowd a
+ * large call, e.g. an export with its own parameters, out of the heap.
+ */
+public class SCryptScratchPool {
+    /**
+     * ROMix working memory for one lane
+     */
+    static final class Scratch {
+        final int N;
+        final int r;
+        final int[] V;
+        final int[] XY;
+
+        Scratch(int N, int r) {
+            this.N = N;
+            this.r = r;
+            this.V = new int[32 * r * N];
+            this.XY = new int[64 * r + 16];
+        }
+
+        long bytes() {
+            return 4L * (V.length + XY.length);
+        }
+
+        static long bytes(int N, int r) {
+            return 4L * (32L * r * N + 64 * r + 16);
+        }
+    }
+
+    private final long maxPooledBytes;
+    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<Scratch>> idle =
+            new ConcurrentHashMap<Long, ConcurrentLinkedQueue<Scratch>>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxPooledBytes hard cap on the bytes of idle scratch kept
+     */
+    public SCryptScratchPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    private static Long key(int N, int r) {
+        return Long.valueOf((long) N << 32 | r);
+    }
+
+    /**
+     * @return zeroed scratch for ROMix with N and r, release() it when done
+     */
+    Scratch acquire(int N, int r) {
+        ConcurrentLinkedQueue<Scratch> queue = idle.get(key(N, r));
+        Scratch scratch = queue == null ? null : queue.poll();
+        if (scratch != null) {
+            pooledBytes.addAndGet(-scratch.bytes());
+            hits.incrementAndGet();
+            return scratch;
+        }
+        misses.incrementAndGet();
+        long bytes = Scratch.bytes(N, r);
+        if (bytes > maxPooledBytes) {
+            clear();
+        } else {
+            evictOthers(null, bytes);
+        }
+        return new Scratch(N, r);
+    }
+
+    /**
+     * Wipes scratch and keeps it for the next acquire() if it fits within the cap.
+     */
+    void release(Scratch scratch) {
+        Arrays.fill(scratch.V, 0);
+        Arrays.fill(scratch.XY, 0);
+
+        long bytes = scratch.bytes();
+        if (bytes > maxPooledBytes) return;
+        Long key = key(scratch.N, scratch.r);
+        if (!reserve(bytes)) {
+            evictOthers(key, bytes);
+            if (!reserve(bytes)) return;
+        }
+        ConcurrentLinkedQueue<Scratch> queue = idle.get(key);
+        if (queue == null) {
+            ConcurrentLinkedQueue<Scratch> created = new ConcurrentLinkedQueue<Scratch>();
+            queue = idle.putIfAbsent(key, created);
+            if (queue == null) queue = created;
+        }
+        queue.offer(scratch);
+    }
+
+    private boolean reserve(long bytes) {
+        while (true) {
+            long pooled = pooledBytes.get();
+            if (pooled + bytes > maxPooledBytes) return false;
+            if (pooledBytes.compareAndSet(pooled, pooled + bytes)) return true;
+        }
+    }
+
+    /**
+     * Drops idle scratch of other parameters than key (any, if null) until bytes would fit, parameters change rarely
+     * (recalibration)
+     */
+    private void evictOthers(Long key, long bytes) {
+        for (Map.Entry<Long, ConcurrentLinkedQueue<Scratch>> entry : idle.entrySet()) {
+            if (key != null && entry.getKey().equals(key)) continue;
+            Scratch evicted;
+            while (pooledBytes.get() + bytes > maxPooledBytes && (evicted = entry.getValue().poll()) != null) {
+                pooledBytes.addAndGet(-evicted.bytes());
+            }
+        }
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Drops all idle scratch
+     */
+    public void clear() {
+        for (ConcurrentLinkedQueue<Scratch> queue : idle.values()) {
+            Scratch scratch;
+            while ((scratch = queue.poll()) != null) {
+                pooledBytes.addAndGet(-scratch.bytes());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[pooledBytes=" + getPooledBytes() + ", maxPooledBytes="
+                + maxPooledBytes + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+}
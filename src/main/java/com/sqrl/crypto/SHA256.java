@@ -1,16 +1,100 @@
 package com.sqrl.crypto;
 
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+/**
+ * SHA-256 with one MessageDigest per thread, so a digest costs neither a provider lookup nor a new MessageDigest.
+ */
 public class SHA256 {
+    private static final int LENGTH = 32;
+
+    private static final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
+        }
+    };
+
     public static byte[] digest(byte[] bytes) {
+        MessageDigest md = sha256.get();
+        md.reset();
+        return md.digest(bytes);
+    }
+
+    /**
+     * out[outOffset..outOffset+32) = SHA256(bytes[offset..offset+length))
+     */
+    public static void digest(byte[] bytes, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest md = sha256.get();
+        md.reset();
+        md.update(bytes, offset, length);
         try {
-            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            return sha256.digest(bytes);
+            md.digest(out, outOffset, LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Puts SHA256(the remaining bytes of in) into out. in ends up at its limit and out 32 bytes further along.
+     */
+    public static void digest(ByteBuffer in, ByteBuffer out) {
+        MessageDigest md = sha256.get();
+        md.reset();
+        md.update(in);
+        if (out.hasArray()) {
+            try {
+                md.digest(out.array(), out.arrayOffset() + out.position(), LENGTH);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            out.position(out.position() + LENGTH);
+        } else {
+            out.put(md.digest());
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            // every Java platform has to have it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Feeds s to md as UTF-8, without encoding it into a new array first
+     */
+    static void updateUTF8(MessageDigest md, CharSequence s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                md.update((byte) c);
+                continue;
+            }
+            if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, s.charAt(++i));
+            } else if (c >= 0xD800 && c <= 0xDFFF) {
+                // unpaired, String.getBytes() writes a '?' for those
+                md.update((byte) '?');
+                continue;
+            }
+            if (c < 0x800) {
+                md.update((byte) (0xC0 | (c >> 6)));
+            } else if (c < 0x10000) {
+                md.update((byte) (0xE0 | (c >> 12)));
+                md.update((byte) (0x80 | ((c >> 6) & 0x3F)));
+            } else {
+                md.update((byte) (0xF0 | (c >> 18)));
+                md.update((byte) (0x80 | ((c >> 12) & 0x3F)));
+                md.update((byte) (0x80 | ((c >> 6) & 0x3F)));
+            }
+            md.update((byte) (0x80 | (c & 0x3F)));
         }
-        return null;
     }
 }
@@ -0,0 +1,83 @@
+package com.sqrl.crypto;
+
+/**
+ * Arithmetic on Ed25519 scalars modulo the group order l = 2^252 + 27742317777372353535851937790883648493.
+ *
+ * Scalars are 32-byte little-endian arrays. The reduction is the one from TweetNaCl (Bernstein, van Gastel,
+ * Janssen, Lange, Schwabe, Smetsers): the number is held as signed radix-2^8 digits in a long[64] and every digit
+ * above 2^252 is folded back down with l. Unlike BigInteger nothing is allocated, so secret scalars only ever live
+ * in arrays the caller can wipe. Like Field25519 the scratch space is supplied by the caller.
+ */
+final class Scalar25519 {
+    /** l, little-endian */
+    private static final long[] L = { 0xed, 0xd3, 0xf5, 0x5c, 0x1a, 0x63, 0x12, 0x58, 0xd6, 0x9c, 0xf7, 0xa2, 0xde,
+            0xf9, 0xde, 0x14, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x10 };
+
+    private Scalar25519() {
+    }
+
+    /**
+     * @return scratch space for reduce() and muladd()
+     */
+    static long[] scratch() {
+        return new long[64];
+    }
+
+    /**
+     * r[roff..roff+32) = s[0..64) mod l, e.g. for a SHA-512 hash. r may be s.
+     */
+    static void reduce(byte[] r, int roff, byte[] s, long[] x) {
+        for (int i = 0; i < 64; i++) {
+            x[i] = s[i] & 0xff;
+        }
+        modL(r, roff, x);
+    }
+
+    /**
+     * r[roff..roff+32) = (a*b + c) mod l, a, b and c are 32-byte scalars.
+     */
+    static void muladd(byte[] r, int roff, byte[] a, byte[] b, byte[] c, long[] x) {
+        for (int i = 0; i < 64; i++) {
+            x[i] = i < 32 ? c[i] & 0xff : 0;
+        }
+        for (int i = 0; i < 32; i++) {
+            long ai = a[i] & 0xff;
+            for (int j = 0; j < 32; j++) {
+                x[i + j] += ai * (b[j] & 0xff);
+            }
+        }
+        modL(r, roff, x);
+    }
+
+    /**
+     * r[roff..roff+32) = x mod l, for x in signed radix-2^8 digits. Clears x.
+     */
+    private static void modL(byte[] r, int roff, long[] x) {
+        long carry;
+        for (int i = 63; i >= 32; --i) {
+            carry = 0;
+            int j;
+            for (j = i - 32; j < i - 12; ++j) {
+                x[j] += carry - 16 * x[i] * L[j - (i - 32)];
+                carry = (x[j] + 128) >> 8;
+                x[j] -= carry << 8;
+            }
+            x[j] += carry;
+            x[i] = 0;
+        }
+        carry = 0;
+        for (int j = 0; j < 32; j++) {
+            x[j] += carry - (x[31] >> 4) * L[j];
+            carry = x[j] >> 8;
+            x[j] &= 255;
+        }
+        for (int j = 0; j < 32; j++) {
+            x[j] -= carry * L[j];
+        }
+        for (int i = 0; i < 32; i++) {
+            if (i < 31) x[i + 1] += x[i] >> 8;
+            r[roff + i] = (byte) x[i];
+            x[i] = 0;
+        }
+    }
+}
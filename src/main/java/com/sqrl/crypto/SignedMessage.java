@@ -0,0 +1,41 @@
+package com.sqrl.crypto;
+
+/**
+ * An Ed25519 signature together with the message and the public key it is to be checked against.
+ *
+ * @see Curve25519#checkvalidBatch(java.util.List)
+ */
+public class SignedMessage {
+    /**
+     * The 64-byte signature R || S
+     */
+    private final byte[] signature;
+
+    /**
+     * The signed message
+     */
+    private final byte[] message;
+
+    /**
+     * The 32-byte public key of the signer
+     */
+    private final byte[] publicKey;
+
+    public SignedMessage(byte[] signature, byte[] message, byte[] publicKey) {
+        this.signature = signature;
+        this.message = message;
+        this.publicKey = publicKey;
+    }
+
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    public byte[] getMessage() {
+        return message;
+    }
+
+    public byte[] getPublicKey() {
+        return publicKey;
+    }
+}
@@ -0,0 +1,25 @@
+package com.sqrl.exception;
+
+/**
+ * Thrown when a scrypt computation is given up before it finishes
+ */
+public class SCryptAbortedException extends SQRLException {
+    public enum Reason {
+        CANCELLED, DEADLINE_EXCEEDED, INTERRUPTED
+    }
+
+    private final Reason reason;
+
+    public SCryptAbortedException(Reason reason) {
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String getMessage() {
+        return "scrypt aborted: " + reason;
+    }
+}
@@ -0,0 +1,7 @@
+package com.sqrl.exception;
+
+/**
+ * Thrown when an unlocked SQRLSession is used after it has expired or was closed
+ */
+public class SessionExpiredException extends SQRLException {
+}
@@ -0,0 +1,142 @@
+package com.sqrl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets.
+ *
+ * Values below 16 get a bucket each, above that every power of two is split into 16 buckets, so a value is known
+ * to within 1/16 (about 6%) at any magnitude. record() takes a few atomic increments and allocates nothing, so it
+ * can sit on any hot path; readers see a consistent enough picture without stopping writers.
+ *
+ * Threads recording similar latencies all hit the same bucket, so the buckets are striped like a StripedCounter:
+ * there is a row of them per stripe, up to MAX_STRIPES, and each thread counts in the row its id picks. Reading sums
+ * the rows.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+    /** a row of buckets takes almost 8KB, there is one per stripe */
+    private static final int MAX_STRIPES = 8;
+
+    private final AtomicLongArray counts;
+    private final int stripeMask;
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param stripes number of rows of buckets, rounded up to a power of two
+     */
+    public LatencyHistogram(int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripeMask = n - 1;
+        this.counts = new AtomicLongArray(n * BUCKETS);
+    }
+
+    /**
+     * Counts one more value, negative values count as 0
+     */
+    public void record(long value) {
+        if(value < 0) value = 0;
+        counts.incrementAndGet(StripedCounter.stripe(stripeMask) * BUCKETS + index(value));
+        count.increment();
+        total.add(value);
+        long m;
+        while(value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // retry
+        }
+    }
+
+    static int index(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * @return the smallest value that falls into bucket index
+     */
+    static long lowerBound(int index) {
+        if(index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long mantissa = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + mantissa) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * @return the largest value that falls into bucket index
+     */
+    static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the value below which percentile percent of the recorded values are, as the middle of its bucket, 0
+     *         if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for(int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i);
+            snapshot[i % BUCKETS] += c;
+            n += c;
+        }
+        if(n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                long lower = lowerBound(i);
+                return Math.min(lower + (upperBound(i) - lower) / 2, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getMedian() {
+        return getValueAtPercentile(50);
+    }
+
+    public void reset() {
+        for(int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[count=" + getCount() + ", mean=" + (long) getMean() + ", p50="
+                + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax() + "]";
+    }
+}
@@ -0,0 +1,250 @@
+package com.sqrl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counters and latency histograms for the client and crypto operations, e.g. how long signing takes at the 99th
+ * percentile or how often a password did not verify.
+ *
+ * Recording takes a System.nanoTime() and a few uncontended atomic adds and allocates nothing. The values can be
+ * read with snapshot() and getCounters(), or over JMX once register() was called: every operation shows up as
+ * attributes "name.calls", "name.errors", "name.meanMillis", "name.p50Millis", "name.p90Millis", "name.p99Millis"
+ * and "name.maxMillis", every counter under its own name, and "reset" starts over.
+ */
+public class OperationMetrics implements DynamicMBean {
+    public static final String OBJECT_NAME = "com.sqrl:type=OperationMetrics";
+
+    private static final OperationMetrics defaultMetrics = new OperationMetrics();
+
+    private static final String[] FIELDS = { "calls", "errors", "meanMillis", "p50Millis", "p90Millis", "p99Millis",
+            "maxMillis" };
+
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+    private final ConcurrentHashMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+
+    /**
+     * A timed operation. Keep the instance in a static field, looking it up on every call costs a map lookup.
+     */
+    public static class Operation {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final StripedCounter errors = new StripedCounter();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Records a call that started at startNanos, as returned by System.nanoTime()
+         */
+        public void record(long startNanos) {
+            recordElapsed(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Records a call that took nanos nanoseconds
+         */
+        public void recordElapsed(long nanos) {
+            latency.record(nanos);
+        }
+
+        /**
+         * Counts a call that failed, record() it as well
+         */
+        public void fail() {
+            errors.increment();
+        }
+
+        public OperationSnapshot snapshot() {
+            return new OperationSnapshot(name, latency.getCount(), errors.sum(), latency.getMean(),
+                    latency.getValueAtPercentile(50), latency.getValueAtPercentile(90),
+                    latency.getValueAtPercentile(99), latency.getMax());
+        }
+
+        void reset() {
+            latency.reset();
+            errors.reset();
+        }
+    }
+
+    /**
+     * @return the metrics every operation in this library records to
+     */
+    public static OperationMetrics getDefault() {
+        return defaultMetrics;
+    }
+
+    /**
+     * @return the operation called name, created on first use
+     */
+    public Operation operation(String name) {
+        Operation operation = operations.get(name);
+        if(operation == null) {
+            Operation created = new Operation(name);
+            operation = operations.putIfAbsent(name, created);
+            if(operation == null) operation = created;
+        }
+        return operation;
+    }
+
+    /**
+     * @return the counter called name, created on first use
+     */
+    public StripedCounter counter(String name) {
+        StripedCounter counter = counters.get(name);
+        if(counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = counters.putIfAbsent(name, created);
+            if(counter == null) counter = created;
+        }
+        return counter;
+    }
+
+    /**
+     * @return the current state of every operation, by name
+     */
+    public SortedMap<String, OperationSnapshot> snapshot() {
+        SortedMap<String, OperationSnapshot> snapshot = new TreeMap<String, OperationSnapshot>();
+        for(Operation operation : operations.values()) {
+            snapshot.put(operation.getName(), operation.snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the current value of every counter, by name
+     */
+    public SortedMap<String, Long> getCounters() {
+        SortedMap<String, Long> values = new TreeMap<String, Long>();
+        for(Map.Entry<String, StripedCounter> e : counters.entrySet()) {
+            values.put(e.getKey(), e.getValue().sum());
+        }
+        return values;
+    }
+
+    /**
+     * Starts every operation and counter over from zero
+     */
+    public void reset() {
+        for(Operation operation : operations.values()) {
+            operation.reset();
+        }
+        for(StripedCounter counter : counters.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Makes these metrics visible over JMX in the platform MBean server as OBJECT_NAME
+     *
+     * @return the name it was registered under
+     * @throws JMException if it cannot be registered, e.g. because something else already is under that name
+     */
+    public ObjectName register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        StripedCounter counter = counters.get(attribute);
+        if(counter != null) return counter.sum();
+
+        int dot = attribute.lastIndexOf('.');
+        Operation operation = dot < 0 ? null : operations.get(attribute.substring(0, dot));
+        if(operation == null) throw new AttributeNotFoundException(attribute);
+        OperationSnapshot snapshot = operation.snapshot();
+        String field = attribute.substring(dot + 1);
+        if("calls".equals(field)) return snapshot.getCalls();
+        if("errors".equals(field)) return snapshot.getErrors();
+        if("meanMillis".equals(field)) return snapshot.getMeanNanos() / 1e6;
+        if("p50Millis".equals(field)) return snapshot.getP50Nanos() / 1e6;
+        if("p90Millis".equals(field)) return snapshot.getP90Nanos() / 1e6;
+        if("p99Millis".equals(field)) return snapshot.getP99Nanos() / 1e6;
+        if("maxMillis".equals(field)) return snapshot.getMaxNanos() / 1e6;
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for(String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch(AttributeNotFoundException e) {
+                // left out, as the interface asks for
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if("reset".equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        List<String> names = new ArrayList<String>(operations.keySet());
+        Collections.sort(names);
+        for(String name : names) {
+            for(String field : FIELDS) {
+                String type = field.endsWith("Millis") ? "double" : "long";
+                attributes.add(new MBeanAttributeInfo(name + "." + field, type, name + " " + field, true, false,
+                        false));
+            }
+        }
+        names = new ArrayList<String>(counters.keySet());
+        Collections.sort(names);
+        for(String name : names) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "starts every operation and counter over",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "SQRL operation metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[] { reset }, new MBeanNotificationInfo[0]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.sqrl.metrics;
+
+import java.text.MessageFormat;
+
+/**
+ * The state of one OperationMetrics operation at the time it was taken. Times are in nanoseconds.
+ */
+public class OperationSnapshot {
+    private final String name;
+    private final long calls;
+    private final long errors;
+    private final double meanNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+    public OperationSnapshot(String name, long calls, long errors, double meanNanos, long p50Nanos, long p90Nanos,
+                             long p99Nanos, long maxNanos) {
+        this.name = name;
+        this.calls = calls;
+        this.errors = errors;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("{0}[calls={1}, errors={2}, mean={3,number,0.###}ms, p50={4,number,0.###}ms, "
+                + "p90={5,number,0.###}ms, p99={6,number,0.###}ms, max={7,number,0.###}ms]", name, calls, errors,
+                meanNanos / 1e6, p50Nanos / 1e6, p90Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6);
+    }
+}
@@ -9,20 +9,27 @@ public class SCryptCandidate {
     public final byte Nx;
     public final short r;
     public final float cost;
+    /** half-width of the 95% confidence interval of cost, 0 if unknown */
+    public final float costError;
     public final long[] samples;
 
     public SCryptCandidate(int r, double cost, int Nx) {
+        this(r, cost, 0, Nx);
+    }
+
+    public SCryptCandidate(int r, double cost, double costError, int Nx) {
         if(Nx > Byte.MAX_VALUE) throw new IllegalArgumentException();
         if(r > Short.MAX_VALUE) throw new IllegalArgumentException();
 
         this.r = (short)r;
         this.cost = (float)cost;
+        this.costError = (float)costError;
         this.Nx = (byte)Nx;
         this.samples = new long[64];
     }
 
     public String toString() {
-        return MessageFormat.format("N=2^{1} r={0} cost={2,number,0.#}",r,(int) Nx, cost);
+        return MessageFormat.format("N=2^{1} r={0} cost={2,number,0.#} error={3,number,0.#}",r,(int) Nx, cost, costError);
     }
 
     public boolean cullCost(double cullMinimum) {
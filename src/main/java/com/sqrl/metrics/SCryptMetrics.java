@@ -1,17 +1,28 @@
 package com.sqrl.metrics;
 
-import com.lambdaworks.crypto.SCrypt;
-import com.sqrl.SQRLPasswordParameters;
+import com.sqrl.crypto.SCryptScheduler;
 
+import org.apache.commons.math.MathException;
 import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math.stat.regression.SimpleRegression;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class which provides methods to predict SCrypt work factors for the current host (heuristic-based) and
  * given memory limits (provable).
+ *
+ * Everything is measured through an SCryptScheduler, on the engine and with the lanes that SCrypt.scrypt() runs
+ * with. A cost is nanoseconds per byte of one round of lanes: a call takes cost * 128*N*r for each round, and it
+ * runs ceil(p / workers) rounds when its lanes go workers at a time.
  */
 public class SCryptMetrics {
     private static final double LOG2 = Math.log(2);
@@ -23,15 +34,36 @@ public class SCryptMetrics {
      */
     private static final int MIN_R = 2;
 
+    /*
+     * a candidate is sampled until the 95% confidence interval of its cost is within 5% of the cost, or until
+     * MAX_EXTRA_SAMPLES more samples did not get it there
+     */
+    private static final double COST_TOLERANCE = 0.05;
+    private static final int MAX_EXTRA_SAMPLES = 8;
+
+    private final SCryptScheduler scheduler;
     private final byte[] password;
     private byte[] salt;
 
     private List<SCryptCandidate> candidates = new ArrayList<SCryptCandidate>();
     private SummaryStatistics costStatistics = new SummaryStatistics();
+    // every value added to costStatistics, so that the statistics can be persisted with a profile
+    private List<Double> costs = new ArrayList<Double>();
+    // Nx -> per-call time with c concurrent calls divided by the time of a single call, at index c-1
+    private Map<Integer, double[]> concurrencyScaling = new TreeMap<Integer, double[]>();
+    private final CountDownLatch calibrated = new CountDownLatch(1);
     boolean saveSampleTiming = false;
     private long benchmarkRuntime = 0;
 
     public SCryptMetrics(Random rand) {
+        this(rand, SCryptScheduler.getDefault());
+    }
+
+    /**
+     * @param scheduler what benchmarks run on, and what the suggested parameters will be run on
+     */
+    public SCryptMetrics(Random rand, SCryptScheduler scheduler) {
+        this.scheduler = scheduler;
         password = new byte[8];
         rand.nextBytes(password);
 
@@ -41,27 +73,21 @@ public class SCryptMetrics {
 
     public static void main(String[] args) throws Exception {
         SCryptMetrics m = new SCryptMetrics(new SecureRandom());
-        long time = System.currentTimeMillis();
-        SCrypt.scrypt(m.password,m.salt,1<<17,2,645,32);
-        System.out.println(System.currentTimeMillis() - time);
+        System.out.println(m.scheduler.time(m.password,m.salt,1<<17,2,645) / 1000000);
         m.benchmarkSCrypt(32*1024*1024);
-//        SQRLPasswordParameters suggestedParams = m.paramsForLowP(60,32*1024*1024);
-        SQRLPasswordParameters suggestedParams = m.paramsForTimeGivenMemory(60,32*1024*1024);
+//        SCryptPrediction suggestedParams = m.paramsForLowP(60,32*1024*1024);
+        SCryptPrediction suggestedParams = m.paramsForTimeGivenMemory(60,32*1024*1024);
         System.out.println("try " + suggestedParams);
     }
 
     /**
      * system heuristic prioritizing low parallelization, less accurate
      */
-    public SQRLPasswordParameters paramsForLowP(double timeSpec, int memorySpec) {
+    public synchronized SCryptPrediction paramsForLowP(double timeSpec, int memorySpec) {
         if(candidates.isEmpty()) throw new IllegalStateException("no benchmark data present");
 
         timeSpec *= 1000000000; // 1 second
 
-        // FUZZ FACTOR
-        // as timeSpec grows prediction becomes more difficult
-        timeSpec *= 1.25;
-
         SCryptCandidate[] candidatesN = getBestCandidatesForN(candidates);
 
         double bestCost = costStatistics.getMin();
@@ -71,6 +97,7 @@ public class SCryptMetrics {
         int outNx = (int)Math.floor(targetNx);
 
         double predictedCost = bestCost;
+        SCryptCandidate predictedBy = null;
         if(outNx <= 0) {
             // TODO: throw exception
 //            System.out.println("no good candidates!");
@@ -80,7 +107,8 @@ public class SCryptMetrics {
             while(candidatesN[predictNx] == null) {
                 predictNx--;
             }
-            predictedCost = candidatesN[predictNx].cost;
+            predictedBy = candidatesN[predictNx];
+            predictedCost = predictedBy.cost;
         }
 
         int outR = MIN_R;
@@ -97,27 +125,24 @@ public class SCryptMetrics {
                 // TODO throw exception
 //                System.out.println("no sample for Nx " + outNx);
             } else {
-                predictedCost = candidatesN[outNx].cost;
+                predictedBy = candidatesN[outNx];
+                predictedCost = predictedBy.cost;
             }
             outTime = getTime(predictedCost,1 << outNx,outR,1);
             outP = (int)Math.ceil(timeSpec / outTime);
         }
 
-        return new SQRLPasswordParameters(outNx,outR,outP);
+        return predict(outNx,outR,lanes(outNx,outR,outP),predictedCost,predictedBy);
     }
 
     /**
-     * system heuristic. at low timespec fuzz factor could be eliminated
+     * system heuristic. the returned prediction tells how far off the time may be
      */
-    public SQRLPasswordParameters paramsForTimeGivenMemory(double timeSpec, int memorySpec) throws GeneralSecurityException {
+    public synchronized SCryptPrediction paramsForTimeGivenMemory(double timeSpec, int memorySpec) throws GeneralSecurityException {
         if(candidates.isEmpty()) throw new IllegalStateException("no benchmark data present");
 
         timeSpec *= 1000000000; // 1 second
 
-        // FUZZ FACTOR
-        // as timeSpec grows prediction becomes more difficult
-        timeSpec *= 1.25;
-
         SCryptCandidate[] candidatesN = getBestCandidatesForN(candidates);
 
         double bestCost = costStatistics.getMin();
@@ -129,12 +154,14 @@ public class SCryptMetrics {
             outNx--;
         }
         double predictedCost = bestCost;
+        SCryptCandidate predictedBy = null;
         if(outNx <= 0) {
             // TODO throw exception
 //            System.out.println("no good candidates!");
             outNx = (int)Math.ceil(targetNx);
         } else {
-            predictedCost = candidatesN[outNx].cost;
+            predictedBy = candidatesN[outNx];
+            predictedCost = predictedBy.cost;
         }
 
         int outR = memorySpec / ((1 << outNx) * 128);
@@ -159,16 +186,269 @@ public class SCryptMetrics {
 
         outP = (int)Math.ceil(timeSpec / outTime);
 
-        return new SQRLPasswordParameters(outNx,outR,outP);
+        return predict(outNx,outR,lanes(outNx,outR,outP),predictedCost,predictedBy);
+    }
+
+    /**
+     * @param predictedBy the candidate predictedCost was taken from, null if it is the best cost overall
+     */
+    private SCryptPrediction predict(int Nx, int r, int p, double predictedCost, SCryptCandidate predictedBy) {
+        double relativeError;
+        if(predictedBy != null && predictedBy.costError > 0) {
+            relativeError = predictedBy.costError / predictedBy.cost;
+        } else {
+            // no interval for this candidate (e.g. an old profile), the spread of all costs will have to do
+            relativeError = costStatistics.getStandardDeviation() / costStatistics.getMean();
+            if(Double.isNaN(relativeError)) relativeError = 0;
+        }
+        double time = engineTime(predictedCost,1 << Nx,r,p) / 1e9;
+        return new SCryptPrediction(Nx,r,p,time,Math.max(0,time * (1 - relativeError)),time * (1 + relativeError));
+    }
+
+    /**
+     * system heuristic for hosts running several scrypt calls at once. scrypt is bound by memory bandwidth, so every
+     * call slows down when others run next to it; the time target has to be met at that slowed-down speed. needs
+     * benchmarkConcurrency() results, without them this is paramsForTimeGivenMemory().
+     *
+     * @param expectedConcurrency number of scrypt calls expected to run at the same time
+     */
+    public synchronized SCryptPrediction paramsForThroughput(double timeSpec, int memorySpec,
+                                                             int expectedConcurrency) throws GeneralSecurityException {
+        SCryptPrediction params = paramsForTimeGivenMemory(timeSpec, memorySpec);
+        // the slowdown depends on N (bigger tables miss the caches more), N depends on the slowdown: settle it
+        for(int i = 0; i < 3; i++) {
+            double slowdown = getSlowdown(params.getHashN(), expectedConcurrency);
+            SCryptPrediction adjusted = paramsForTimeGivenMemory(timeSpec / slowdown, memorySpec);
+            if(adjusted.getHashN() == params.getHashN() && adjusted.getHashR() == params.getHashR()
+                    && adjusted.getHashP() == params.getHashP()) break;
+            params = adjusted;
+        }
+        // predict the time with the others running
+        double slowdown = getSlowdown(params.getHashN(), expectedConcurrency);
+        return new SCryptPrediction(params.getHashN(), params.getHashR(), params.getHashP(),
+                params.getPredictedTime() * slowdown, params.getLowerBound() * slowdown,
+                params.getUpperBound() * slowdown);
+    }
+
+    /**
+     * @return how many times slower a single call gets with concurrency calls running, 1 if unknown
+     */
+    public synchronized double getSlowdown(int Nx, int concurrency) {
+        if(concurrency <= 1 || concurrencyScaling.isEmpty()) return 1;
+        // the measured N closest to Nx
+        double[] scaling = null;
+        int distance = Integer.MAX_VALUE;
+        for(Map.Entry<Integer, double[]> e : concurrencyScaling.entrySet()) {
+            if(Math.abs(e.getKey() - Nx) < distance) {
+                distance = Math.abs(e.getKey() - Nx);
+                scaling = e.getValue();
+            }
+        }
+        if(concurrency <= scaling.length) return scaling[concurrency - 1];
+        // beyond what was measured continue the last slope, concurrency past the core count only gets worse
+        int k = scaling.length;
+        double slope = k > 1 ? scaling[k - 1] - scaling[k - 2] : 1;
+        return scaling[k - 1] + Math.max(slope, 0) * (concurrency - k);
+    }
+
+    /**
+     * Measures how per-call time grows when 1..maxConcurrency scrypt calls run at once, for the best candidate of
+     * every N. The calls go through the scheduler like logins do, so they share its lanes and memory budget, and the
+     * time of a call includes waiting for memory. needs benchmarkSCrypt() (or profile) results.
+     */
+    public synchronized void benchmarkConcurrency(int maxConcurrency) throws GeneralSecurityException {
+        if(candidates.isEmpty()) throw new IllegalStateException("no benchmark data present");
+        long sampleTime = 20000000;
+
+        Map<Integer, double[]> result = new TreeMap<Integer, double[]>();
+        for(SCryptCandidate c : getBestCandidatesForN(candidates)) {
+            if(c == null) continue;
+            int N = 1 << c.Nx;
+            int p = lanes(c.Nx, c.r, (int)Math.max(1, Math.ceil(sampleTime / (double)getTime(c.cost, N, c.r, 1))));
+            double[] scaling = new double[maxConcurrency];
+            double single = 0;
+            for(int k = 1; k <= maxConcurrency; k++) {
+                double time = timeConcurrent(k, N, c.r, p);
+                if(k == 1) single = time;
+                scaling[k - 1] = time / single;
+            }
+            result.put((int) c.Nx, scaling);
+        }
+        concurrencyScaling = result;
+    }
+
+    /**
+     * @return average time in nanoseconds of a scrypt call while k of them run at once
+     */
+    private double timeConcurrent(final int k, final int N, final int r, final int p) throws GeneralSecurityException {
+        final CyclicBarrier start = new CyclicBarrier(k);
+        final long[] times = new long[k];
+        final GeneralSecurityException[] failure = new GeneralSecurityException[1];
+        Thread[] workers = new Thread[k];
+        for(int i = 0; i < k; i++) {
+            final int worker = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long time = System.nanoTime();
+                        scheduler.time(password, salt, N, r, p);
+                        times[worker] = System.nanoTime() - time;
+                    } catch(GeneralSecurityException e) {
+                        failure[0] = e;
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch(BrokenBarrierException e) {
+                        // another worker failed
+                    }
+                }
+            }, "SCrypt concurrency benchmark");
+            workers[i].start();
+        }
+        long total = 0;
+        for(int i = 0; i < k; i++) {
+            try {
+                workers[i].join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while benchmarking");
+            }
+            total += times[i];
+        }
+        if(failure[0] != null) throw failure[0];
+        return (double) total / k;
+    }
+
+    /**
+     * @return median time of the calls recorded in timing divided by the time predicted for them, so above 1 when
+     *         this host got slower than benchmarked. NaN if there is nothing to compare.
+     */
+    public synchronized double getDrift(SCryptTimings.Timing timing) {
+        SCryptCandidate c = getCandidateFor(timing.Nx);
+        if(c == null || timing.histogram.getCount() == 0) return Double.NaN;
+        return timing.histogram.getMedian()
+                / (double) getTime(c.cost,1 << timing.Nx,timing.r,timing.p,timing.workers);
+    }
+
+    /**
+     * Compares every SCryptTimings entry with at least minCount calls to the benchmark, e.g. to notice thermal
+     * throttling or noisy neighbours.
+     *
+     * @param tolerance relative deviation that is still fine, on top of the uncertainty of the benchmark itself
+     * @return the timings that moved away from the prediction, with their drift, see getDrift()
+     */
+    public synchronized Map<SCryptTimings.Timing, Double> findDrift(double tolerance, long minCount) {
+        Map<SCryptTimings.Timing, Double> drifting = new LinkedHashMap<SCryptTimings.Timing, Double>();
+        for(SCryptTimings.Timing timing : SCryptTimings.all()) {
+            if(timing.histogram.getCount() < minCount) continue;
+            double drift = getDrift(timing);
+            if(Double.isNaN(drift)) continue;
+            SCryptCandidate c = getCandidateFor(timing.Nx);
+            double limit = 1 + tolerance + c.costError / c.cost;
+            if(drift > limit || drift < 1 / limit) {
+                drifting.put(timing, drift);
+            }
+        }
+        return drifting;
+    }
+
+    /**
+     * Takes the calls recorded in SCryptTimings as calibration data: every entry with at least minCount calls
+     * replaces the candidate with the same N and r (or becomes one), so that suggestions follow what calls really
+     * cost instead of the benchmark.
+     *
+     * @return the number of candidates replaced or added
+     */
+    public synchronized int useObserved(long minCount) {
+        int used = 0;
+        for(SCryptTimings.Timing timing : SCryptTimings.all()) {
+            LatencyHistogram histogram = timing.histogram;
+            if(histogram.getCount() < minCount || histogram.getCount() == 0) continue;
+            double work = 128.0 * (1 << timing.Nx) * timing.r * rounds(timing.p,timing.workers);
+            double cost = histogram.getMedian() / work;
+            // half the interquartile range, a robust stand-in for the benchmark's confidence interval
+            double costError = (histogram.getValueAtPercentile(75) - histogram.getValueAtPercentile(25)) / 2 / work;
+            for(Iterator<SCryptCandidate> i = candidates.iterator(); i.hasNext(); ) {
+                SCryptCandidate c = i.next();
+                if(c.Nx == timing.Nx && c.r == timing.r) i.remove();
+            }
+            candidates.add(new SCryptCandidate(timing.r,cost,costError,timing.Nx));
+            costStatistics.addValue(cost);
+            costs.add(cost);
+            used++;
+        }
+        if(used > 0) {
+            Collections.sort(candidates, new CostComparator());
+            calibrated.countDown();
+        }
+        return used;
+    }
+
+    /**
+     * @return the best candidate for Nx, or for the largest N below it, null if there is none
+     */
+    private SCryptCandidate getCandidateFor(int Nx) {
+        SCryptCandidate[] candidatesN = getBestCandidatesForN(candidates);
+        for(int nx = Math.min(Nx, candidatesN.length - 1); nx >= 0; nx--) {
+            if(candidatesN[nx] != null) return candidatesN[nx];
+        }
+        return null;
+    }
+
+    /**
+     * @return p for a call with N=2^Nx and r that takes rounds rounds: as many lanes per round as the scheduler runs
+     *         side by side
+     */
+    private int lanes(int Nx, int r, int rounds) {
+        int N = 1 << Nx;
+        int workers = scheduler.workers(N, r, scheduler.getEngine().parallelism(N, r, Integer.MAX_VALUE));
+        return (int) Math.min(Integer.MAX_VALUE, (long) rounds * workers);
+    }
+
+    /**
+     * @return time of a call with these parameters on the scheduler, its lanes running side by side as they do there
+     */
+    private long engineTime(double cost, int N, int r, int p) {
+        return getTime(cost, N, r, p, scheduler.workers(N, r, p));
+    }
+
+    /**
+     * @return bytes a call with these parameters works through one round after the other, see engineTime()
+     */
+    private double work(int N, int r, int p) {
+        return 128.0 * N * r * rounds(p, scheduler.workers(N, r, p));
+    }
+
+    private long sample(int N, int r, int p) throws GeneralSecurityException {
+        return scheduler.time(password, salt, N, r, p);
+    }
+
+    /**
+     * @return half-width of the 95% confidence interval of the regression slope, NaN with less than 3 samples
+     */
+    static double costInterval(SimpleRegression regression) {
+        if(regression.getN() < 3) return Double.NaN;
+        try {
+            return regression.getSlopeConfidenceInterval();
+        } catch(MathException e) {
+            return Double.NaN;
+        }
+    }
+
+    static boolean isPrecise(SimpleRegression regression) {
+        double interval = costInterval(regression);
+        return !Double.isNaN(interval) && interval <= COST_TOLERANCE * regression.getSlope();
     }
 
     private long getMemory(int Nx, int r, int p) {
         return 128l * (1 << Nx) * r;
     }
 
-    public void benchmarkSCrypt(long maxMemory) throws GeneralSecurityException {
+    public synchronized void benchmarkSCrypt(long maxMemory) throws GeneralSecurityException {
         candidates.clear();
         costStatistics.clear();
+        costs.clear();
 
         long sampleMinTime = 10000000;
         long sampleMaxTime = 400000000;
@@ -177,7 +457,7 @@ public class SCryptMetrics {
 
         // invocation warmup
         for(int i = 1 << 16; i >=0 ; --i) {
-            SCrypt.scrypt(password, salt, 2, 1, 1, 32);
+            sample(2, 1, 1);
         }
 
         time = System.nanoTime() - time;
@@ -208,21 +488,42 @@ public class SCryptMetrics {
                             continue nextN;
                         }
                         p = 1 << px;
-                    } while(getTime(bestCost,N,r,p) > sampleMaxTime);
+                    } while(engineTime(bestCost,N,r,p) > sampleMaxTime);
                 }
                 long[] samples = new long[64];
+                // time = overhead + cost * 128*N*r*rounds, the slope is the cost without the per call overhead
+                SimpleRegression regression = new SimpleRegression();
                 while(time < sampleMinTime) {
                     p = 1 << px;
-                    time = System.nanoTime();
-                    SCrypt.scrypt(password,salt,N,r,p,32);
-                    time = System.nanoTime() - time;
+                    time = sample(N,r,p);
+                    regression.addData(work(N,r,p), time);
                     samples[px] = time;
                     px++;
                 }
                 px--;
-                double cost = getCost(time,N,r,p);
+                // adaptive: only sample more while the cost is not known well enough, alternating p so the
+                // regression has two points to go by. p below the number of workers all take one round, so the
+                // other p has to differ in rounds, not just in p
+                int otherPx = px > 0 && work(N,r,1 << (px - 1)) < work(N,r,1 << px) ? px - 1 : px + 1;
+                while(otherPx < 30 && work(N,r,1 << otherPx) == work(N,r,1 << px)) {
+                    otherPx++;
+                }
+                for(int extra = 0; extra < MAX_EXTRA_SAMPLES && !isPrecise(regression); extra++) {
+                    int sx = (extra & 1) == 0 ? otherPx : px;
+                    long sampleTime = sample(N,r,1 << sx);
+                    regression.addData(work(N,r,1 << sx), sampleTime);
+                    samples[sx] = sampleTime;
+                }
+                double cost = regression.getSlope();
+                double costError = costInterval(regression);
+                if(Double.isNaN(cost) || cost <= 0 || Double.isNaN(costError)) {
+                    // too noisy for a fit, fall back to the longest sample and admit to knowing nothing
+                    cost = time / work(N,r,p);
+                    costError = cost;
+                }
                 costStatistics.addValue(cost);
-                SCryptCandidate candidate = new SCryptCandidate(r,cost,Nx);
+                costs.add(cost);
+                SCryptCandidate candidate = new SCryptCandidate(r,cost,costError,Nx);
                 if(saveSampleTiming) {
                     System.arraycopy(samples,0,candidate.samples,0,Math.min(samples.length,candidate.samples.length));
                 }
@@ -245,6 +546,93 @@ public class SCryptMetrics {
         cullSCryptCandidatesForCost(candidates,costStatistics,16);
 
         benchmarkRuntime = System.nanoTime() - benchmarkRuntime;
+        calibrated.countDown();
+    }
+
+    /**
+     * Returns metrics for this host without benchmarking first, if it can.
+     *
+     * A profile in profileFile from a host with the same fingerprint is used right away. If there is none, or it is
+     * from a different host, or it is older than maxAge, scrypt is benchmarked on a background thread and the new
+     * results are stored in profileFile and used from then on. Until then a stale profile is still used, without
+     * any profile the paramsFor methods throw IllegalStateException; see awaitCalibration().
+     *
+     * @param profileFile where the profile is kept
+     * @param maxAge milliseconds after which a profile is measured again
+     * @param maxMemory memory limit for the benchmark, see benchmarkSCrypt()
+     */
+    public static SCryptMetrics forHost(final File profileFile, long maxAge, final long maxMemory) {
+        final SCryptMetrics metrics = new SCryptMetrics(new SecureRandom());
+        String fingerprint = SCryptProfile.hostFingerprint();
+        SCryptProfile profile = null;
+        try {
+            profile = SCryptProfile.load(profileFile);
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+        if(profile != null && profile.matches(fingerprint)) {
+            metrics.useProfile(profile);
+            if(!profile.isStale(maxAge, System.currentTimeMillis())) {
+                return metrics;
+            }
+        }
+
+        Thread calibration = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SCryptMetrics fresh = new SCryptMetrics(new SecureRandom());
+                    fresh.benchmarkSCrypt(maxMemory);
+                    fresh.benchmarkConcurrency(Runtime.getRuntime().availableProcessors());
+                    SCryptProfile profile = fresh.toProfile();
+                    metrics.useProfile(profile);
+                    profile.store(profileFile);
+                } catch(GeneralSecurityException e) {
+                    e.printStackTrace();
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "SCrypt calibration");
+        calibration.setDaemon(true);
+        calibration.setPriority(Thread.MIN_PRIORITY);
+        calibration.start();
+        return metrics;
+    }
+
+    /**
+     * @return the current benchmark results as a profile of this host
+     */
+    public synchronized SCryptProfile toProfile() {
+        if(candidates.isEmpty()) throw new IllegalStateException("no benchmark data present");
+        double[] costValues = new double[costs.size()];
+        for(int i = 0; i < costValues.length; i++) {
+            costValues[i] = costs.get(i);
+        }
+        return new SCryptProfile(SCryptProfile.hostFingerprint(), System.currentTimeMillis(), candidates, costValues,
+                concurrencyScaling);
+    }
+
+    /**
+     * Replaces the benchmark results with the ones from profile
+     */
+    public synchronized void useProfile(SCryptProfile profile) {
+        candidates = new ArrayList<SCryptCandidate>(profile.getCandidates());
+        costStatistics = new SummaryStatistics();
+        costs = new ArrayList<Double>();
+        for(double cost : profile.getCosts()) {
+            costStatistics.addValue(cost);
+            costs.add(cost);
+        }
+        concurrencyScaling = new TreeMap<Integer, double[]>(profile.getConcurrencyScaling());
+        calibrated.countDown();
+    }
+
+    /**
+     * @return true once benchmark results are present, false if timeout milliseconds passed first
+     */
+    public boolean awaitCalibration(long timeout) throws InterruptedException {
+        return calibrated.await(timeout, TimeUnit.MILLISECONDS);
     }
 
     protected SCryptCandidate[] getBestCandidatesForN(List<SCryptCandidate> candidates) {
@@ -269,6 +657,21 @@ public class SCryptMetrics {
         return (long)(cost * 128 * N * r * p);
     }
 
+    /**
+     * @return time of a call whose lanes run workers at a time, which is that of rounds(p, workers) lanes one after
+     *         the other
+     */
+    public static long getTime(double cost, int N, int r, int p, int workers) {
+        return getTime(cost,N,r,rounds(p,workers));
+    }
+
+    /**
+     * @return number of lanes each of workers parallel workers runs, one after the other, for p lanes
+     */
+    static int rounds(int p, int workers) {
+        return (p + workers - 1) / workers;
+    }
+
     protected double cullSCryptCandidatesForCost(List<SCryptCandidate> candidates, SummaryStatistics costStats, int midNx) {
         double stddev = costStats.getStandardDeviation();
         double cullMinimum = costStats.getMean() + stddev;
@@ -0,0 +1,48 @@
+package com.sqrl.metrics;
+
+import com.sqrl.SQRLPasswordParameters;
+
+import java.text.MessageFormat;
+
+/**
+ * Password parameters suggested by SCryptMetrics, together with how long they are expected to take on this host.
+ *
+ * The bounds come from the confidence interval of the measured cost the suggestion was based on, so a poorly
+ * sampled candidate shows up as a wide interval instead of a padded time.
+ */
+public class SCryptPrediction extends SQRLPasswordParameters {
+    private final double predictedTime;
+    private final double lowerBound;
+    private final double upperBound;
+
+    /**
+     * @param predictedTime expected seconds for one scrypt call with these parameters
+     * @param lowerBound lower end of the confidence interval, in seconds
+     * @param upperBound upper end of the confidence interval, in seconds
+     */
+    public SCryptPrediction(int N, int r, int p, double predictedTime, double lowerBound, double upperBound) {
+        super(N, r, p);
+        this.predictedTime = predictedTime;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
+    public double getPredictedTime() {
+        return predictedTime;
+    }
+
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("{0}[N={1}, r={2}, p={3}, time={4,number,0.###}s ({5,number,0.###}s..{6,number,0.###}s)]",
+                this.getClass().getSimpleName(), getHashN(), getHashR(), getHashP(), predictedTime, lowerBound,
+                upperBound);
+    }
+}
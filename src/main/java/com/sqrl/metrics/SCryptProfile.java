@@ -0,0 +1,244 @@
+package com.sqrl.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The results of SCryptMetrics.benchmarkSCrypt() for one host, persisted so that a restart does not need to
+ * calibrate again.
+ *
+ * Profiles are small versioned properties files. They are keyed by a fingerprint of everything that changes how
+ * fast scrypt runs here: CPU model, core count, max heap and JVM. A profile only applies to a host with the same
+ * fingerprint, and should be refreshed once it is older than the caller's maximum age.
+ */
+public class SCryptProfile {
+    // 2: costs are measured on SCryptEngine per round of parallel lanes, no longer on lambdaworks
+    public static final int VERSION = 2;
+
+    private final String fingerprint;
+    private final long created;
+    private final List<SCryptCandidate> candidates;
+    private final double[] costs;
+    private final Map<Integer, double[]> concurrencyScaling;
+
+    /**
+     * @param fingerprint host the measurements were taken on, see hostFingerprint()
+     * @param created when the measurements were taken, in milliseconds since the epoch
+     * @param candidates the candidates that survived culling
+     * @param costs every cost measured, the basis of the cost statistics
+     */
+    public SCryptProfile(String fingerprint, long created, List<SCryptCandidate> candidates, double[] costs) {
+        this(fingerprint, created, candidates, costs, Collections.<Integer, double[]>emptyMap());
+    }
+
+    /**
+     * @param concurrencyScaling per Nx, the slowdown of a call with 1, 2, 3, ... calls running at once, see
+     *            SCryptMetrics.benchmarkConcurrency()
+     */
+    public SCryptProfile(String fingerprint, long created, List<SCryptCandidate> candidates, double[] costs,
+                         Map<Integer, double[]> concurrencyScaling) {
+        this.fingerprint = fingerprint;
+        this.created = created;
+        this.candidates = Collections.unmodifiableList(new ArrayList<SCryptCandidate>(candidates));
+        this.costs = costs.clone();
+        this.concurrencyScaling = Collections.unmodifiableMap(new TreeMap<Integer, double[]>(concurrencyScaling));
+    }
+
+    /**
+     * @return description of this host and JVM, e.g. "cpu=Intel(R) Core(TM) i7-4770 CPU @ 3.40GHz;cores=8;
+     *         maxHeap=3817865216;jvm=Java HotSpot(TM) 64-Bit Server VM 1.7.0_45"
+     */
+    public static String hostFingerprint() {
+        return "cpu=" + cpuModel()
+                + ";cores=" + Runtime.getRuntime().availableProcessors()
+                + ";maxHeap=" + Runtime.getRuntime().maxMemory()
+                + ";jvm=" + System.getProperty("java.vm.name") + " " + System.getProperty("java.version");
+    }
+
+    private static String cpuModel() {
+        // Linux
+        File cpuinfo = new File("/proc/cpuinfo");
+        if(cpuinfo.canRead()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(cpuinfo));
+                String line;
+                while((line = reader.readLine()) != null) {
+                    if(line.startsWith("model name")) {
+                        return line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+            } catch(IOException e) {
+                // fall through to the less precise sources
+            } finally {
+                close(reader);
+            }
+        }
+        // Windows
+        String identifier = System.getenv("PROCESSOR_IDENTIFIER");
+        if(identifier != null) {
+            return identifier;
+        }
+        return System.getProperty("os.arch");
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public List<SCryptCandidate> getCandidates() {
+        return candidates;
+    }
+
+    public double[] getCosts() {
+        return costs.clone();
+    }
+
+    public Map<Integer, double[]> getConcurrencyScaling() {
+        return concurrencyScaling;
+    }
+
+    /**
+     * @return true if the profile was measured on a host with this fingerprint
+     */
+    public boolean matches(String hostFingerprint) {
+        return fingerprint.equals(hostFingerprint);
+    }
+
+    /**
+     * @param maxAge maximum age in milliseconds
+     * @return true if the profile was measured more than maxAge ago (or claims to be from the future)
+     */
+    public boolean isStale(long maxAge, long now) {
+        return now - created > maxAge || created > now;
+    }
+
+    /**
+     * Writes the profile to file, replacing it only once the new one is completely written.
+     */
+    public void store(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("version", Integer.toString(VERSION));
+        properties.setProperty("fingerprint", fingerprint);
+        properties.setProperty("created", Long.toString(created));
+        properties.setProperty("candidates", Integer.toString(candidates.size()));
+        for(int i = 0; i < candidates.size(); i++) {
+            SCryptCandidate c = candidates.get(i);
+            properties.setProperty("candidate." + i, c.Nx + "," + c.r + "," + c.cost + "," + c.costError);
+        }
+        properties.setProperty("costs", join(costs));
+        for(Map.Entry<Integer, double[]> e : concurrencyScaling.entrySet()) {
+            properties.setProperty("concurrency." + e.getKey(), join(e.getValue()));
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, "SCrypt calibration profile");
+        } finally {
+            out.close();
+        }
+        if(!tmp.renameTo(file)) {
+            // renameTo does not replace an existing file everywhere
+            file.delete();
+            if(!tmp.renameTo(file)) throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * @return the profile stored in file, or null if there is none or it was written by an incompatible version
+     * @throws IOException if the file exists but cannot be read
+     */
+    public static SCryptProfile load(File file) throws IOException {
+        if(!file.isFile()) return null;
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        try {
+            if(Integer.parseInt(properties.getProperty("version", "0")) != VERSION) return null;
+            String fingerprint = properties.getProperty("fingerprint");
+            long created = Long.parseLong(properties.getProperty("created"));
+            int count = Integer.parseInt(properties.getProperty("candidates"));
+            List<SCryptCandidate> candidates = new ArrayList<SCryptCandidate>(count);
+            for(int i = 0; i < count; i++) {
+                String[] fields = properties.getProperty("candidate." + i).split(",");
+                // the cost error was added later, profiles without it are still fine
+                double costError = fields.length > 3 ? Double.parseDouble(fields[3]) : 0;
+                candidates.add(new SCryptCandidate(Integer.parseInt(fields[1]), Double.parseDouble(fields[2]),
+                        costError, Integer.parseInt(fields[0])));
+            }
+            double[] costs = split(properties.getProperty("costs", ""));
+            Map<Integer, double[]> concurrencyScaling = new TreeMap<Integer, double[]>();
+            for(String name : properties.stringPropertyNames()) {
+                if(name.startsWith("concurrency.")) {
+                    concurrencyScaling.put(Integer.parseInt(name.substring("concurrency.".length())),
+                            split(properties.getProperty(name)));
+                }
+            }
+            if(fingerprint == null) return null;
+            return new SCryptProfile(fingerprint, created, candidates, costs, concurrencyScaling);
+        } catch(RuntimeException e) {
+            // truncated or hand-edited, treat it as missing
+            return null;
+        }
+    }
+
+    private static String join(double[] values) {
+        StringBuilder joined = new StringBuilder();
+        for(double value : values) {
+            if(joined.length() > 0) joined.append(',');
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static double[] split(String joined) {
+        String[] fields = joined.length() == 0 ? new String[0] : joined.split(",");
+        double[] values = new double[fields.length];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = Double.parseDouble(fields[i]);
+        }
+        return values;
+    }
+
+    private static void close(BufferedReader reader) {
+        if(reader != null) {
+            try {
+                reader.close();
+            } catch(IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[fingerprint=" + fingerprint + ", created=" + created
+                + ", candidates=" + candidates.size() + "]";
+    }
+}
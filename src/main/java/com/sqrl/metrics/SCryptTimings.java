@@ -0,0 +1,83 @@
+package com.sqrl.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How long real scrypt calls take on this host, one LatencyHistogram (in nanoseconds) per N, r, p and number of
+ * lanes run at once.
+ *
+ * com.sqrl.crypto.SCryptScheduler records every call it runs here, timing only the engine and not the wait for
+ * memory. SCryptMetrics compares them to what its benchmark predicted and can take them over as calibration data.
+ */
+public class SCryptTimings {
+    private static final ConcurrentHashMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+
+    /**
+     * The calls made with one set of parameters
+     */
+    public static class Timing {
+        public final int Nx;
+        public final int r;
+        public final int p;
+        /** lanes the engine ran side by side, so a call took ceil(p / workers) lanes one after the other */
+        public final int workers;
+        public final LatencyHistogram histogram = new LatencyHistogram();
+
+        Timing(int Nx, int r, int p, int workers) {
+            this.Nx = Nx;
+            this.r = r;
+            this.p = p;
+            this.workers = workers;
+        }
+
+        @Override
+        public String toString() {
+            return "N=2^" + Nx + " r=" + r + " p=" + p + " workers=" + workers + " " + histogram;
+        }
+    }
+
+    private SCryptTimings() {
+    }
+
+    private static String key(int Nx, int r, int p, int workers) {
+        // r and p take up to 24 bits each, too many to pack the workers next to them into a long
+        return Nx + "/" + r + "/" + p + "/" + workers;
+    }
+
+    /**
+     * @return the timing for these parameters, created on first use
+     */
+    public static Timing forParameters(int Nx, int r, int p, int workers) {
+        String key = key(Nx, r, p, workers);
+        Timing timing = timings.get(key);
+        if(timing == null) {
+            Timing created = new Timing(Nx, r, p, workers);
+            timing = timings.putIfAbsent(key, created);
+            if(timing == null) timing = created;
+        }
+        return timing;
+    }
+
+    /**
+     * Records a call with N=2^Nx, r and p, whose lanes ran workers at a time, that took nanos nanoseconds
+     */
+    public static void record(int Nx, int r, int p, int workers, long nanos) {
+        forParameters(Nx, r, p, workers).histogram.record(nanos);
+    }
+
+    /**
+     * @return every set of parameters recorded so far
+     */
+    public static List<Timing> all() {
+        return new ArrayList<Timing>(timings.values());
+    }
+
+    /**
+     * Forgets everything recorded, e.g. after the host changed
+     */
+    public static void clear() {
+        timings.clear();
+    }
+}
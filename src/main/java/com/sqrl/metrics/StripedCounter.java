@@ -0,0 +1,70 @@
+package com.sqrl.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without fighting over one cache line.
+ *
+ * Every thread adds to one of several cells, picked by its id, and the cells are spaced a cache line apart. Reading
+ * the value sums all cells, so reads are slower than with an AtomicLong and not a snapshot of one instant.
+ */
+public class StripedCounter {
+    /** longs per cache line, cells are this far apart */
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes number of cells, rounded up to a power of two
+     */
+    public StripedCounter(int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.mask = n - 1;
+        this.cells = new AtomicLongArray(n * PAD);
+    }
+
+    /**
+     * @return the stripe the current thread uses, out of mask + 1 stripes
+     */
+    static int stripe(int mask) {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h >>> 16) & mask;
+    }
+
+    private int cell() {
+        return stripe(mask) * PAD;
+    }
+
+    public void add(long x) {
+        cells.addAndGet(cell(), x);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for(int i = 0; i < cells.length(); i += PAD) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for(int i = 0; i < cells.length(); i += PAD) {
+            cells.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -0,0 +1,139 @@
+package com.sqrl.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Key material kept off-heap, in a slot of a SecretSlab.
+ *
+ * Unlike a byte[], the bytes are never copied around by the garbage collector, so zeroing them really removes
+ * them from memory: close() zeroes the slot before handing it back. The operations the client needs (xor, HMAC,
+ * signing) read and write the buffer in place instead of returning fresh arrays.
+ *
+ * A SecretBuffer is not thread-safe, and must not be used after close().
+ */
+public final class SecretBuffer {
+    private final SecretSlab slab;
+    private final int slot;
+    private final ByteBuffer buffer;
+    private final int length;
+    private boolean closed;
+
+    SecretBuffer(SecretSlab slab, int slot, ByteBuffer buffer, int length) {
+        this.slab = slab;
+        this.slot = slot;
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    /**
+     * @return a zeroed buffer of length bytes from the default slab
+     */
+    public static SecretBuffer allocate(int length) {
+        return SecretSlab.getDefault().allocate(length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte get(int index) {
+        check(index);
+        return buffer.get(index);
+    }
+
+    public SecretBuffer put(int index, byte value) {
+        check(index);
+        buffer.put(index, value);
+        return this;
+    }
+
+    /**
+     * this = src
+     */
+    public SecretBuffer put(byte[] src) {
+        check(src.length - 1);
+        for (int i = src.length - 1; i >= 0; --i) {
+            buffer.put(i, src[i]);
+        }
+        return this;
+    }
+
+    /**
+     * this = src
+     */
+    public SecretBuffer put(SecretBuffer src) {
+        for (int i = src.length() - 1; i >= 0; --i) {
+            put(i, src.get(i));
+        }
+        return this;
+    }
+
+    /**
+     * this = a ^ b
+     */
+    public SecretBuffer xor(byte[] a, byte[] b) {
+        check(a.length - 1);
+        for (int i = a.length - 1; i >= 0; --i) {
+            buffer.put(i, (byte) (a[i] ^ b[i]));
+        }
+        return this;
+    }
+
+    /**
+     * this = a ^ b
+     */
+    public SecretBuffer xor(SecretBuffer a, SecretBuffer b) {
+        for (int i = a.length() - 1; i >= 0; --i) {
+            put(i, (byte) (a.get(i) ^ b.get(i)));
+        }
+        return this;
+    }
+
+    /**
+     * this ^= a
+     */
+    public SecretBuffer xor(byte[] a) {
+        check(a.length - 1);
+        for (int i = a.length - 1; i >= 0; --i) {
+            buffer.put(i, (byte) (buffer.get(i) ^ a[i]));
+        }
+        return this;
+    }
+
+    /**
+     * Copies the secret into dst[off..off+length()), for code that can only work on arrays. It is up to the caller
+     * to zero dst afterwards.
+     */
+    public void copyTo(byte[] dst, int off) {
+        check(0);
+        for (int i = length - 1; i >= 0; --i) {
+            dst[off + i] = buffer.get(i);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void zero() {
+        check(0);
+        for (int i = length - 1; i >= 0; --i) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Zeroes the buffer and gives its slot back to the slab. Closing twice is harmless.
+     */
+    public void close() {
+        if (closed) return;
+        zero();
+        closed = true;
+        if (slab != null) slab.release(slot);
+    }
+
+    private void check(int index) {
+        if (closed) throw new IllegalStateException("secret buffer is closed");
+        if (index >= length) throw new IndexOutOfBoundsException("index " + index + " >= length " + length);
+    }
+}
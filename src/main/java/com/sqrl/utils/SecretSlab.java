@@ -0,0 +1,111 @@
+package com.sqrl.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated, off-heap slab of fixed-size slots that SecretBuffers are carved from.
+ *
+ * The slab is a single direct ByteBuffer allocated up front, so secrets kept in it are never moved (and copied) by
+ * the garbage collector and memory use does not depend on how many logins are done. Free slots are kept on a
+ * lock-free stack; allocating and releasing a slot is a compare-and-set on its head.
+ *
+ * When the slab is exhausted, or a buffer larger than a slot is asked for, a dedicated direct buffer is allocated
+ * instead and counted in getOverflows(), so a slab that is too small shows up rather than failing logins.
+ */
+public class SecretSlab {
+    private static final SecretSlab DEFAULT = new SecretSlab(64, 1024);
+
+    private final int slotSize;
+    private final ByteBuffer[] slots;
+    /** next[i] is the free slot below slot i on the stack, plus one (0 ends the stack) */
+    private final AtomicIntegerArray next;
+    /** top of the free stack plus one in the low 32 bits, a modification count in the high 32 against ABA */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong free = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * @param slotSize size of every slot in bytes
+     * @param slots number of slots
+     */
+    public SecretSlab(int slotSize, int slots) {
+        if (slotSize < 1 || slots < 1) throw new IllegalArgumentException("slab must not be empty");
+        this.slotSize = slotSize;
+        this.slots = new ByteBuffer[slots];
+        this.next = new AtomicIntegerArray(slots);
+        ByteBuffer slab = ByteBuffer.allocateDirect(slotSize * slots);
+        for (int i = 0; i < slots; i++) {
+            slab.limit((i + 1) * slotSize).position(i * slotSize);
+            this.slots[i] = slab.slice();
+            next.set(i, i);
+        }
+        head.set(slots);
+        free.set(slots);
+    }
+
+    /**
+     * @return the slab used by SecretBuffer.allocate(), 1024 slots of 64 bytes
+     */
+    public static SecretSlab getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a zeroed buffer of length bytes, close() it to give the slot back
+     */
+    public SecretBuffer allocate(int length) {
+        if (length <= slotSize) {
+            while (true) {
+                long h = head.get();
+                int top = (int) h;
+                if (top == 0) break;
+                long updated = ((h >>> 32) + 1) << 32 | (next.get(top - 1) & 0xffffffffL);
+                if (head.compareAndSet(h, updated)) {
+                    free.decrementAndGet();
+                    return new SecretBuffer(this, top - 1, slots[top - 1], length);
+                }
+            }
+        }
+        overflows.incrementAndGet();
+        return new SecretBuffer(null, -1, ByteBuffer.allocateDirect(length), length);
+    }
+
+    /**
+     * Puts a slot back on the free stack, it must already have been zeroed.
+     */
+    void release(int slot) {
+        while (true) {
+            long h = head.get();
+            next.set(slot, (int) h);
+            long updated = ((h >>> 32) + 1) << 32 | (slot + 1);
+            if (head.compareAndSet(h, updated)) {
+                free.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public int getSlots() {
+        return slots.length;
+    }
+
+    public long getFree() {
+        return free.get();
+    }
+
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[slotSize=" + slotSize + ", slots=" + slots.length + ", free="
+                + getFree() + ", overflows=" + getOverflows() + "]";
+    }
+}
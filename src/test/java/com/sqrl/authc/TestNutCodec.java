@@ -0,0 +1,58 @@
+package com.sqrl.authc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestNutCodec {
+
+    byte[] secret = "0123456789abcdef0123456789abcdef".getBytes();
+    long minute = 60 * 1000L;
+    NutCodec codec = new NutCodec(secret, 10 * minute, 5 * minute);
+    long now = 1388556000L * 1000L;
+
+    @Test
+    public void testIssueAndValidate() {
+        String token = codec.issue("192.0.2.1", now);
+        assertEquals(43, token.length());
+
+        Nut nut = codec.validate(token, "192.0.2.1", now + minute);
+        assertNotNull(nut);
+        assertEquals(now, nut.getIssuedAt());
+        assertEquals(token, nut.getToken());
+
+        // any node with the same secret can validate, even across a key rotation
+        NutCodec otherNode = new NutCodec(secret, 10 * minute, 5 * minute);
+        assertNotNull(otherNode.validate(codec.issue(null, now + 9 * minute), null, now + 11 * minute));
+    }
+
+    @Test
+    public void testRejects() {
+        String token = codec.issue("192.0.2.1", now);
+        // expired
+        assertNull(codec.validate(token, "192.0.2.1", now + 6 * minute));
+        // different client
+        assertNull(codec.validate(token, "192.0.2.2", now));
+        // different secret
+        NutCodec forger = new NutCodec("fedcba9876543210fedcba9876543210".getBytes(), 10 * minute, 5 * minute);
+        assertNull(codec.validate(forger.issue("192.0.2.1", now), "192.0.2.1", now));
+        // tampered
+        char[] chars = token.toCharArray();
+        chars[10] = chars[10] == 'A' ? 'B' : 'A';
+        assertNull(codec.validate(new String(chars), "192.0.2.1", now));
+    }
+
+    @Test
+    public void testUnique() {
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(seen.add(codec.issue(null, now)));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.sqrl.authc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class TestReplayDetector {
+
+    long minute = 60 * 1000L;
+    long now = 1388556000L * 1000L;
+
+    @Test
+    public void testReplay() {
+        ReplayDetector detector = new ReplayDetector(5 * minute, minute, 100, 1e-6, null);
+        assertTrue(detector.markUsed("nut-1", now));
+        assertTrue(detector.markUsed("nut-2", now));
+        assertFalse(detector.markUsed("nut-1", now));
+        // a new bucket pushes out the one from 6 minutes ago
+        assertTrue(detector.markUsed("nut-3", now + 6 * minute));
+        assertFalse(detector.markUsed("nut-4", now));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        ReplayDetector detector = new ReplayDetector(5 * minute, minute, 1000, 1e-3, null);
+        int falsePositives = 0;
+        // one minute at the expected rate
+        for (int i = 0; i < 60 * 1000; i++) {
+            if (!detector.markUsed("nut-" + i, now)) falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 60 * 3);
+        // the size only depends on rate and lifetime
+        assertTrue(detector.getFilterBytes() <= 6 * 256 * 1024);
+    }
+
+    /**
+     * A real exact store, like a table with a unique key on the nut
+     */
+    static class SetConfirmer implements ReplayDetector.Confirmer {
+        final Set<String> used = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        public boolean markUsed(String nut, long issuedAt) {
+            return used.add(nut);
+        }
+    }
+
+    @Test
+    public void testConfirmer() {
+        // at a false-positive rate of one half the filter alone turns away many fresh nuts
+        SetConfirmer confirmer = new SetConfirmer();
+        ReplayDetector detector = new ReplayDetector(5 * minute, minute, 100, 0.5, confirmer);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(detector.markUsed("nut-" + i, now));
+        }
+        assertEquals(1000, confirmer.used.size());
+        // every one of them is a real replay now, whether the filter would have caught it or not
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(detector.markUsed("nut-" + i, now));
+        }
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        assertEquals(10000, concurrentFirstUses(new ReplayDetector(5 * minute, minute, 10000, 1e-9, null)));
+        // with a confirmer every nut still gets through exactly once, false positives or not
+        assertEquals(10000, concurrentFirstUses(new ReplayDetector(5 * minute, minute, 10000, 0.1,
+                new SetConfirmer())));
+    }
+
+    private int concurrentFirstUses(final ReplayDetector detector) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < 8; t++) {
+            results.add(executor.submit(new Callable<Integer>() {
+                public Integer call() {
+                    int firstUses = 0;
+                    for (int i = 0; i < 10000; i++) {
+                        if (detector.markUsed("nut-" + i, now)) firstUses++;
+                    }
+                    return firstUses;
+                }
+            }));
+        }
+        int total = 0;
+        for (Future<Integer> result : results) {
+            total += result.get();
+        }
+        executor.shutdown();
+        return total;
+    }
+}
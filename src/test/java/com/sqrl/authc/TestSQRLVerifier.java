@@ -0,0 +1,63 @@
+package com.sqrl.authc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sqrl.SQRLAuthentication;
+import com.sqrl.crypto.Curve25519;
+import com.sqrl.utils.URLs;
+
+public class TestSQRLVerifier {
+
+    String siteURL = "www.example.com/~bob/sqrl.php?d=5&nut=KJA7nLFDQWWmvt10yVjNDoQ81uTvNorPrr53PPRJesz";
+    byte[] privateKey = new byte[32];
+    byte[] publicKey = Curve25519.publickey(privateKey);
+
+    SQRLVerifier verifier = new SQRLVerifier();
+
+    @After
+    public void shutdown() {
+        verifier.shutdown();
+    }
+
+    SQRLAuthentication sign(String realm, String signedURL, String claimedURL) {
+        byte[] signature = Curve25519.signature(signedURL.getBytes(Charset.forName("UTF-8")), privateKey, publicKey);
+        return new SQRLAuthentication(realm, claimedURL, signature, publicKey);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        String realm = URLs.getTLD(siteURL);
+        byte[] badKey = new byte[32];
+        badKey[0] = 2; // y = 2 is not on the curve
+
+        List<SQRLAuthentication> submissions = new ArrayList<SQRLAuthentication>();
+        submissions.add(sign(realm, siteURL, siteURL));
+        submissions.add(sign(realm, siteURL, siteURL + "x"));
+        submissions.add(sign("www.example.com", siteURL, siteURL));
+        submissions.add(new SQRLAuthentication(realm, siteURL, new byte[64], badKey));
+        submissions.add(sign(realm, "no-query-string", "no-query-string"));
+        // a valid signature, but no realm to check it against
+        submissions.add(sign(null, siteURL, siteURL));
+        VerificationResult[] expected = { VerificationResult.VALID, VerificationResult.INVALID_SIGNATURE,
+                VerificationResult.REALM_MISMATCH, VerificationResult.MALFORMED, VerificationResult.MALFORMED,
+                VerificationResult.MALFORMED };
+
+        List<Future<VerificationResult>> results = new ArrayList<Future<VerificationResult>>();
+        for (SQRLAuthentication authentication : submissions) {
+            results.add(verifier.submit(authentication));
+        }
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], results.get(i).get());
+        }
+        assertEquals(expected.length, verifier.getCompleted());
+        assertEquals(0, verifier.getPending());
+    }
+}
@@ -1,10 +1,14 @@
 package com.sqrl.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -12,8 +16,12 @@ import com.sqrl.SQRLAuthentication;
 import com.sqrl.SQRLIdentity;
 import com.sqrl.SQRLPasswordParameters;
 import com.sqrl.crypto.Curve25519;
+import com.sqrl.exception.PasswordVerifyException;
 import com.sqrl.exception.SQRLException;
+import com.sqrl.exception.SessionExpiredException;
+import com.sqrl.metrics.OperationMetrics;
 import com.sqrl.utils.Base64Url;
+import com.sqrl.utils.SecretSlab;
 import com.sqrl.utils.URLs;
 
 public class TestSQRLClient {
@@ -104,6 +112,124 @@ public class TestSQRLClient {
         }
     }
 
+    @Test
+    public void testSession() throws Exception {
+        String siteURL = "www.example.com/~bob/sqrl.php?d=5&nut=KJA7nLFDQWWmvt10yVjNDoQ81uTvNorPrr53PPRJesz";
+
+        // one scrypt, after which logins only cost a signature
+        SQRLSession session = SQRLClient.unlock(exampleIdentity, "password", 60 * 1000L);
+        SQRLAuthentication authentication = session.createAuthentication(siteURL);
+        assertEquals("Tdgn28vzvs29_4F2aC35aWpLaV1VEHGSabSlJ-rrRC4", Base64Url.encode(authentication.getPublicKey()));
+        assertEquals("c2PK4d2014l3gQZ-ZuOFafg0UHfO-9Dw9UkoouH3ljtycBbWMu3EjECh_bfgIEPz5ID2PLY0F_uoHJMCYuTyCg",
+                     Base64Url.encode(authentication.getSignature()));
+        assertTrue(session.isOpen());
+
+        session.close();
+        assertFalse(session.isOpen());
+        try {
+            session.createAuthentication(siteURL);
+            fail("closed session should not sign");
+        } catch (SessionExpiredException e) {
+            // expected
+        }
+
+        // wrong password never opens a session
+        OperationMetrics metrics = OperationMetrics.getDefault();
+        long failures = metrics.getCounters().get("client.passwordVerifyFailures");
+        long unlockErrors = metrics.snapshot().get("client.unlock").getErrors();
+        try {
+            SQRLClient.unlock(exampleIdentity, "wrong", 60 * 1000L);
+            fail("wrong password should not unlock");
+        } catch (PasswordVerifyException e) {
+            // expected
+        }
+        assertEquals(failures + 1, (long) metrics.getCounters().get("client.passwordVerifyFailures"));
+        assertEquals(unlockErrors + 1, metrics.snapshot().get("client.unlock").getErrors());
+    }
+
+    @Test
+    public void testCreateAuthentications() throws Exception {
+        List<String> siteURLs = Arrays.asList(
+                "www.example.com/~bob/sqrl.php?d=5&nut=KJA7nLFDQWWmvt10yVjNDoQ81uTvNorPrr53PPRJesz",
+                "www.example.com/sqrl?nut=second",
+                "login.example.org/sqrl?nut=1",
+                "www.example.net/sqrl?nut=2",
+                "shop.example.co.uk/sqrl?nut=3",
+                "www.example.com/sqrl?nut=third");
+
+        OperationMetrics metrics = OperationMetrics.getDefault();
+        List<SQRLAuthentication> authentications = SQRLClient.createAuthentications(exampleIdentity, "password",
+                                                                                     siteURLs);
+        assertEquals(siteURLs.size(), authentications.size());
+        assertEquals("c2PK4d2014l3gQZ-ZuOFafg0UHfO-9Dw9UkoouH3ljtycBbWMu3EjECh_bfgIEPz5ID2PLY0F_uoHJMCYuTyCg",
+                     Base64Url.encode(authentications.get(0).getSignature()));
+        assertTrue(metrics.snapshot().get("client.createAuthentications").getCalls() > 0);
+
+        // the same as one createAuthentication() per site, which a session does without the scrypt
+        SQRLSession session = SQRLClient.unlock(exampleIdentity, "password", 60 * 1000L);
+        for (int i = 0; i < siteURLs.size(); i++) {
+            SQRLAuthentication single = session.createAuthentication(siteURLs.get(i));
+            SQRLAuthentication batched = authentications.get(i);
+            assertEquals(siteURLs.get(i), batched.getSiteURL());
+            assertEquals(single.getRealm(), batched.getRealm());
+            assertEquals(Base64Url.encode(single.getPublicKey()), Base64Url.encode(batched.getPublicKey()));
+            assertEquals(Base64Url.encode(single.getSignature()), Base64Url.encode(batched.getSignature()));
+        }
+        session.close();
+
+        try {
+            SQRLClient.createAuthentications(exampleIdentity, "wrong", siteURLs);
+            fail("wrong password should not sign");
+        } catch (PasswordVerifyException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailedAuthenticationWipesSecrets() throws Exception {
+        // without a query there is no realm to derive a site key for
+        String badURL = "www.example.com/sqrl.php";
+        SecretSlab slab = SecretSlab.getDefault();
+        long free = slab.getFree();
+        try {
+            SQRLClient.createAuthentication(exampleIdentity, "password", badURL);
+            fail("site URL without a query should not sign");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        // the master key went back to the slab
+        assertEquals(free, slab.getFree());
+
+        SQRLSession session = SQRLClient.unlock(exampleIdentity, "password", 60 * 1000L);
+        free = slab.getFree();
+        try {
+            session.createAuthentication(badURL);
+            fail("site URL without a query should not sign");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(free, slab.getFree());
+        session.close();
+
+        // the other sites may still be signing when one fails, none of their keys may be left behind
+        free = slab.getFree();
+        try {
+            SQRLClient.createAuthentications(exampleIdentity, "password", Arrays.asList(
+                    "www.example.com/sqrl?nut=1", badURL, "www.example.net/sqrl?nut=2", "www.example.org/sqrl?nut=3"));
+            fail("site URL without a query should not sign");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(free, slab.getFree());
+    }
+
+    @Test
+    public void testSessionIdleTimeout() throws Exception {
+        SQRLSession session = SQRLClient.unlock(exampleIdentity, "password", 50L, 60 * 1000L);
+        Thread.sleep(200);
+        assertFalse(session.isOpen());
+    }
+
     @Test
     public void testChangePassword() {
         // STEP 0: Have the user enter the current password for the identity.
@@ -0,0 +1,440 @@
+package com.sqrl.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import com.sqrl.utils.SecretBuffer;
+
+public class TestCurve25519 {
+
+    // Ed25519 test vectors from RFC 8032, section 7.1 (TEST 1, TEST 2 and TEST 3)
+    String[][] vectors = {
+        { "9d61b19deffd5a60ba844af492ec2cc44449c5697b326919703bac031cae7f60",
+          "d75a980182b10ab7d54bfed3c964073a0ee172f3daa62325af021a68f707511a",
+          "",
+          "e5564300c360ac729086e2cc806e828a84877f1eb8e5d974d873e06522490155"
+        + "5fb8821590a33bacc61e39701cf9b46bd25bf5f0595bbe24655141438e7a100b" },
+        { "4ccd089b28ff96da9db6c346ec114e0f5b8a319f35aba624da8cf6ed4fb8a6fb",
+          "3d4017c3e843895a92b70aa74d1b7ebc9c982ccf2ec4968cc0cd55f12af4660c",
+          "72",
+          "92a009a9f0d4cab8720e820b5f642540a2b27b5416503f8fb3762223ebdb69da"
+        + "085ac1e43e15996e458f3613d0f11d8c387b2eaeb4302aeeb00d291612bb0c00" },
+        { "c5aa8df43f9f837bedb7442f31dcb7b166d38535076f094b85ce3a2e0b4458f7",
+          "fc51cd8e6218a1a38da47ed00230f0580816ed13ba3303ac5deb911548908025",
+          "af82",
+          "6291d657deec24024827e69c3abe01a30ce548a284743a445e3680d7db5ac3ac"
+        + "18ff9b538d16f290ae67f760984dc6594a7c15e9716ed28dc027beceea1ec40a" },
+    };
+
+    static byte[] hex(String s) throws DecoderException {
+        return Hex.decodeHex(s.toCharArray());
+    }
+
+    @Test
+    public void testPublicKey() throws Exception {
+        for (String[] v : vectors) {
+            assertArrayEquals(hex(v[1]), Curve25519.publickey(hex(v[0])));
+        }
+    }
+
+    @Test
+    public void testSignature() throws Exception {
+        for (String[] v : vectors) {
+            assertArrayEquals(hex(v[3]), Curve25519.signature(hex(v[2]), hex(v[0]), hex(v[1])));
+        }
+    }
+
+    @Test
+    public void testCheckValid() throws Exception {
+        for (String[] v : vectors) {
+            assertTrue(Curve25519.checkvalid(hex(v[3]), hex(v[2]), hex(v[1])));
+        }
+    }
+
+    @Test
+    public void testCheckValidRejectsTamperedMessage() throws Exception {
+        for (String[] v : vectors) {
+            byte[] tampered = (v[2] + "00").getBytes("UTF-8");
+            assertFalse(Curve25519.checkvalid(hex(v[3]), tampered, hex(v[1])));
+        }
+    }
+
+    static BigInteger toBigInteger(int[] f) {
+        byte[] s = new byte[32];
+        Field25519.tobytes(s, 0, f, Field25519.create());
+        byte[] be = new byte[33];
+        for (int i = 0; i < 32; i++) {
+            be[32 - i] = s[i];
+        }
+        return new BigInteger(be);
+    }
+
+    @Test
+    public void testFieldArithmetic() {
+        Random rand = new Random(25519);
+        int[][] t = Field25519.create(4);
+        for (int i = 0; i < 200; i++) {
+            BigInteger x = new BigInteger(255, rand);
+            BigInteger y = new BigInteger(255, rand);
+            int[] f = Curve25519.fe(x), g = Curve25519.fe(y), h = Field25519.create();
+            x = x.mod(Curve25519.q);
+            y = y.mod(Curve25519.q);
+
+            Field25519.mul(h, f, g);
+            assertEquals(x.multiply(y).mod(Curve25519.q), toBigInteger(h));
+            Field25519.sq(h, f);
+            assertEquals(x.multiply(x).mod(Curve25519.q), toBigInteger(h));
+            Field25519.sq2(h, f);
+            assertEquals(x.multiply(x).shiftLeft(1).mod(Curve25519.q), toBigInteger(h));
+            // unreduced inputs straight out of add/sub
+            Field25519.add(h, f, g);
+            Field25519.sub(t[0], f, g);
+            Field25519.mul(h, h, t[0]);
+            assertEquals(x.multiply(x).subtract(y.multiply(y)).mod(Curve25519.q), toBigInteger(h));
+            Field25519.invert(h, f, t);
+            assertEquals(x.modInverse(Curve25519.q), toBigInteger(h));
+        }
+    }
+
+    static BigInteger scalar(byte[] s, int off, int len) {
+        byte[] be = new byte[len + 1];
+        for (int i = 0; i < len; i++) {
+            be[len - i] = s[off + i];
+        }
+        return new BigInteger(be);
+    }
+
+    @Test
+    public void testScalarArithmetic() {
+        Random rand = new Random(252);
+        long[] x = Scalar25519.scratch();
+        byte[] r = new byte[32];
+        for (int i = 0; i < 200; i++) {
+            byte[] s = new byte[64];
+            rand.nextBytes(s);
+            if (i == 0) Arrays.fill(s, (byte) 0xff);
+            Scalar25519.reduce(r, 0, s, x);
+            assertEquals(scalar(s, 0, 64).mod(Curve25519.l), scalar(r, 0, 32));
+
+            byte[] a = new byte[32], b = new byte[32], c = new byte[32];
+            rand.nextBytes(a);
+            rand.nextBytes(b);
+            rand.nextBytes(c);
+            Scalar25519.muladd(r, 0, a, b, c, x);
+            BigInteger expected = scalar(a, 0, 32).multiply(scalar(b, 0, 32)).add(scalar(c, 0, 32));
+            assertEquals(expected.mod(Curve25519.l), scalar(r, 0, 32));
+        }
+    }
+
+    /**
+     * R = [a]P by plain double-and-add over all 256 bits, the reference for the comb table and Straus-Shamir
+     */
+    static int[][] scalarmult(int[][] P, byte[] a) {
+        int[][] R = Curve25519.newpoint();
+        int[][] t = Field25519.create(6);
+        Curve25519.identity(R);
+        for (int i = 255; i >= 0; i--) {
+            Curve25519.doubling(R, R, t);
+            if (((a[i >> 3] >> (i & 7)) & 1) != 0) {
+                Curve25519.edwards(R, R, P, t);
+            }
+        }
+        return R;
+    }
+
+    /**
+     * 0, 1, l-1, l, 2^254, 2^255-1 and then random scalars below 2^255, every other one reduced mod l
+     */
+    static List<byte[]> scalars(Random rand, int count) {
+        BigInteger[] edges = { BigInteger.ZERO, BigInteger.ONE, Curve25519.l.subtract(BigInteger.ONE), Curve25519.l,
+                               BigInteger.ONE.shiftLeft(254), BigInteger.ONE.shiftLeft(255).subtract(BigInteger.ONE) };
+        List<byte[]> scalars = new ArrayList<byte[]>();
+        for (BigInteger edge : edges) {
+            scalars.add(Curve25519.encodeint(edge));
+        }
+        while (scalars.size() < count) {
+            BigInteger a = new BigInteger(255, rand);
+            scalars.add(Curve25519.encodeint(scalars.size() % 2 == 0 ? a.mod(Curve25519.l) : a));
+        }
+        return scalars;
+    }
+
+    @Test
+    public void testBasePointTable() {
+        int[][] R = Curve25519.newpoint();
+        BasePointTable.Scratch s = new BasePointTable.Scratch();
+        for (byte[] a : scalars(new Random(128), 100)) {
+            BasePointTable.scalarmult(R, a, s);
+            assertArrayEquals(Curve25519.encodepoint(scalarmult(Curve25519.B, a)), Curve25519.encodepoint(R));
+        }
+    }
+
+    @Test
+    public void testDoubleScalarMultBase() {
+        Random rand = new Random(55);
+        int[][] R = Curve25519.newpoint();
+        Curve25519.VerifyScratch v = new Curve25519.VerifyScratch();
+        List<byte[]> scalars = scalars(rand, 60);
+        for (int i = 0; i < scalars.size(); i++) {
+            byte[] a = scalars.get(i);
+            byte[] c = scalars.get((i * 7 + 3) % scalars.size());
+            int[][] P = scalarmult(Curve25519.B, Curve25519.encodeint(new BigInteger(252, rand)));
+            int[][] expected = scalarmult(P, a);
+            Curve25519.edwards(expected, expected, scalarmult(Curve25519.B, c), Field25519.create(6));
+            // the window widths of verify() and of a cached public key
+            for (int width : new int[] { 5, PublicKeyCache.HOT_WINDOW }) {
+                Curve25519.doublescalarmultbase(R, Curve25519.oddmultiples(P, width), a, c, v);
+                assertArrayEquals(Curve25519.encodepoint(expected), Curve25519.encodepoint(R));
+            }
+        }
+    }
+
+    @Test
+    public void testSecretBufferSigning() throws Exception {
+        for (String[] v : vectors) {
+            SecretBuffer sk = SecretBuffer.allocate(32).put(hex(v[0]));
+            assertArrayEquals(hex(v[1]), Curve25519.publickey(sk));
+            assertArrayEquals(hex(v[3]), Curve25519.signature(hex(v[2]), sk, hex(v[1])));
+            sk.close();
+        }
+    }
+
+    List<SignedMessage> randomBatch(int size) {
+        Random rand = new Random(size);
+        List<SignedMessage> batch = new ArrayList<SignedMessage>();
+        for (int i = 0; i < size; i++) {
+            byte[] sk = new byte[32];
+            byte[] m = new byte[i];
+            rand.nextBytes(sk);
+            rand.nextBytes(m);
+            byte[] pk = Curve25519.publickey(sk);
+            batch.add(new SignedMessage(Curve25519.signature(m, sk, pk), m, pk));
+        }
+        return batch;
+    }
+
+    @Test
+    public void testCheckValidBatch() throws Exception {
+        List<SignedMessage> batch = randomBatch(40);
+        for (String[] v : vectors) {
+            batch.add(new SignedMessage(hex(v[3]), hex(v[2]), hex(v[1])));
+        }
+        for (boolean valid : Curve25519.checkvalidBatch(batch)) {
+            assertTrue(valid);
+        }
+    }
+
+    @Test
+    public void testCheckValidBatchFindsBadEntries() throws Exception {
+        List<SignedMessage> batch = randomBatch(20);
+        SignedMessage good = batch.get(3);
+        batch.set(3, new SignedMessage(good.getSignature(), "tampered".getBytes("UTF-8"), good.getPublicKey()));
+        batch.set(7, new SignedMessage(new byte[12], good.getMessage(), good.getPublicKey()));
+
+        boolean[] valid = Curve25519.checkvalidBatch(batch);
+        for (int i = 0; i < valid.length; i++) {
+            assertEquals(i != 3 && i != 7, valid[i]);
+        }
+    }
+
+    static BigInteger littleEndian(byte[] bytes) {
+        byte[] bigEndian = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            bigEndian[i] = bytes[bytes.length - 1 - i];
+        }
+        return new BigInteger(1, bigEndian);
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteBuffer out = ByteBuffer.allocate(200);
+        for (byte[] part : parts) {
+            out.put(part);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    @Test
+    public void testSmallOrderComponent() throws Exception {
+        // a point of order 8
+        int[][] T = Curve25519.decodepoint(hex("26e8958fc2b227b045c3f489f2ef98f0d5dfac05d3c63339b13802886d53fc05"));
+        int[][] t = Field25519.create(6);
+        int[][] P = Curve25519.newpoint();
+        Curve25519.copy(P, T);
+        Curve25519.doubling(P, P, t);
+        Curve25519.doubling(P, P, t);
+        assertFalse(Curve25519.isidentity(P, t));
+        Curve25519.doubling(P, P, t);
+        assertTrue(Curve25519.isidentity(P, t));
+
+        Random rand = new Random(8);
+        byte[] m = "small order".getBytes("UTF-8");
+        // T added to R, to A, and to both
+        for (int variant = 0; variant < 3; variant++) {
+            BigInteger a = new BigInteger(252, rand);
+            BigInteger r = new BigInteger(252, rand);
+            int[][] A = Curve25519.scalarmultbase(a);
+            int[][] R = Curve25519.scalarmultbase(r);
+            if (variant != 1) Curve25519.edwards(R, R, T, t);
+            if (variant != 0) Curve25519.edwards(A, A, T, t);
+            byte[] Rbytes = Curve25519.encodepoint(R);
+            byte[] pk = Curve25519.encodepoint(A);
+            BigInteger h = littleEndian(Curve25519.H(concat(Rbytes, pk, m))).mod(Curve25519.l);
+            byte[] s = concat(Rbytes, Curve25519.encodeint(r.add(h.multiply(a)).mod(Curve25519.l)));
+
+            // [S]B - [h]A - R is T or a multiple of it, which the cofactor clears
+            boolean single = Curve25519.checkvalid(s, m, pk, null);
+            assertTrue(single);
+            // the batch must agree whatever its random z, a z divisible by 8 used to hide the difference
+            for (int round = 0; round < 40; round++) {
+                List<SignedMessage> batch = randomBatch(2);
+                batch.add(new SignedMessage(s, m, pk));
+                assertEquals(single, Curve25519.checkvalidBatch(batch)[2]);
+            }
+        }
+    }
+
+    @Test
+    public void testPublicKeyCache() throws Exception {
+        PublicKeyCache cache = new PublicKeyCache(2, 3);
+        for (int round = 0; round < 5; round++) {
+            for (String[] v : vectors) {
+                assertTrue(Curve25519.checkvalid(hex(v[3]), hex(v[2]), hex(v[1]), cache));
+                assertFalse(Curve25519.checkvalid(hex(v[3]), hex(v[2] + "00"), hex(v[1]), cache));
+            }
+        }
+        assertEquals(2, cache.size());
+        assertEquals(30, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() >= 18);
+        // the third key is no more popular than the two residents, it never displaced either
+        assertEquals(0, cache.getEvictions());
+
+        // a key that gets more popular than the residents replaces one of them
+        byte[] sk = new byte[32];
+        new Random(6).nextBytes(sk);
+        byte[] pk = Curve25519.publickey(sk);
+        for (int i = 0; i < 15; i++) {
+            cache.get(pk);
+        }
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testPublicKeyCacheConcurrent() throws Exception {
+        final PublicKeyCache cache = new PublicKeyCache(4, 3);
+        final byte[][] keys = new byte[40][];
+        Random rand = new Random(40);
+        for (int i = 0; i < keys.length; i++) {
+            byte[] sk = new byte[32];
+            rand.nextBytes(sk);
+            keys[i] = Curve25519.publickey(sk);
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int t = 0; t < 4; t++) {
+            final Random skewed = new Random(t);
+            results.add(threads.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 2000; i++) {
+                        // a few popular keys and a long tail, so keys keep getting admitted and evicted
+                        int k = Math.min(skewed.nextInt(keys.length), skewed.nextInt(keys.length));
+                        cache.get(keys[k]);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        threads.shutdown();
+        assertEquals(8000, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getEvictions() > 0);
+        // no entry may outlive its slot
+        assertTrue(cache.size() <= cache.getCapacity());
+    }
+
+    @Test
+    public void testStreamingSignAndVerify() throws Exception {
+        byte[] sk = hex(vectors[1][0]);
+        byte[] pk = hex(vectors[1][1]);
+        byte[] m = new byte[100000];
+        new Random(23).nextBytes(m);
+        byte[] expected = Curve25519.signature(m, sk, pk);
+
+        // in uneven pieces, the buffers themselves are not consumed
+        ByteBuffer[] pieces = { ByteBuffer.wrap(m, 0, 1), ByteBuffer.wrap(m, 1, 4095),
+                ByteBuffer.wrap(m, 4096, 0), ByteBuffer.allocateDirect(m.length - 4096) };
+        pieces[3].put(m, 4096, m.length - 4096).flip();
+        assertArrayEquals(expected, Curve25519.signature(pieces, sk, pk));
+        assertEquals(4095, pieces[1].remaining());
+        assertTrue(Curve25519.checkvalid(expected, pieces, pk));
+
+        File file = File.createTempFile("signed", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(m);
+        out.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.getChannel().position(17);
+            assertArrayEquals(expected, Curve25519.signature(raf.getChannel(), sk, pk));
+            assertEquals(17, raf.getChannel().position());
+        } finally {
+            raf.close();
+        }
+
+        assertTrue(Curve25519.checkvalid(expected, Channels.newChannel(new ByteArrayInputStream(m)), pk));
+        m[m.length - 1] ^= 1;
+        assertFalse(Curve25519.checkvalid(expected, Channels.newChannel(new ByteArrayInputStream(m)), pk));
+    }
+
+    @Test
+    public void testExpandedPrivateKey() throws Exception {
+        for (String[] v : vectors) {
+            SecretBuffer seed = SecretBuffer.allocate(32);
+            seed.put(hex(v[0]));
+            Ed25519PrivateKey key = Ed25519PrivateKey.fromSeed(seed);
+            seed.close();
+            assertArrayEquals(hex(v[1]), key.getPublicKey());
+            assertArrayEquals(hex(v[3]), key.sign(hex(v[2])));
+            assertArrayEquals(hex(v[3]), key.sign(new ByteBuffer[] { ByteBuffer.wrap(hex(v[2])) }));
+            // same key, a second time
+            assertArrayEquals(hex(v[3]), key.sign(hex(v[2])));
+            key.close();
+            assertTrue(key.isClosed());
+            try {
+                key.sign(hex(v[2]));
+                fail("signed with a closed key");
+            } catch (IllegalStateException expected) {
+            }
+        }
+        Ed25519PrivateKey key = Ed25519PrivateKey.fromSeed(hex(vectors[0][0]));
+        assertArrayEquals(hex(vectors[0][1]), key.getPublicKey());
+        key.close();
+    }
+}
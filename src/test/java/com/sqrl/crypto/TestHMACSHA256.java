@@ -0,0 +1,140 @@
+package com.sqrl.crypto;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.sqrl.utils.SecretBuffer;
+
+public class TestHMACSHA256 {
+
+    static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+
+    static byte[] repeat(int value, int length) {
+        byte[] out = new byte[length];
+        Arrays.fill(out, (byte) value);
+        return out;
+    }
+
+    // RFC 4231 test cases 1, 2 and 6 (a key longer than a block)
+    byte[][] keys = { repeat(0x0b, 20), "Jefe".getBytes(), repeat(0xaa, 131) };
+    String[] messages = { "Hi There", "what do ya want for nothing?",
+            "Test Using Larger Than Block-Size Key - Hash Key First" };
+    String[] macs = { "b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7",
+            "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843",
+            "60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54" };
+
+    @Test
+    public void testVectors() throws Exception {
+        for (int i = 0; i < keys.length; i++) {
+            byte[] message = messages[i].getBytes("UTF-8");
+            byte[] expected = hex(macs[i]);
+            assertArrayEquals(expected, HMACSHA256.mac(keys[i], message));
+            assertArrayEquals(expected, HMACSHA256.mac(keys[i], messages[i]));
+
+            // offsets on both sides
+            byte[] padded = new byte[message.length + 3];
+            System.arraycopy(message, 0, padded, 2, message.length);
+            byte[] out = new byte[36];
+            HMACSHA256.mac(keys[i], padded, 2, message.length, out, 4);
+            assertArrayEquals(expected, Arrays.copyOfRange(out, 4, 36));
+
+            ByteBuffer in = ByteBuffer.allocateDirect(message.length);
+            in.put(message).flip();
+            ByteBuffer result = ByteBuffer.allocate(32);
+            HMACSHA256.mac(keys[i], in, result);
+            assertFalse(in.hasRemaining());
+            assertArrayEquals(expected, result.array());
+        }
+
+        SecretBuffer key = SecretBuffer.allocate(20).put(keys[0]);
+        SecretBuffer out = SecretBuffer.allocate(32);
+        HMACSHA256.mac(key, messages[0], out);
+        byte[] copy = new byte[32];
+        out.copyTo(copy, 0);
+        assertArrayEquals(hex(macs[0]), copy);
+        key.close();
+        out.close();
+    }
+
+    @Test
+    public void testSecretBufferKey() throws Exception {
+        // a 32-byte key like a master key, the in-place HMAC matches the one on byte arrays
+        byte[] key = hex("9d61b19deffd5a60ba844af492ec2cc44449c5697b326919703bac031cae7f60");
+        SecretBuffer secretKey = SecretBuffer.allocate(32).put(key);
+        SecretBuffer out = SecretBuffer.allocate(32);
+        HMACSHA256.mac(secretKey, "www.example.com", out);
+        byte[] mac = new byte[32];
+        out.copyTo(mac, 0);
+        assertArrayEquals(HMACSHA256.mac(key, "www.example.com"), mac);
+        secretKey.close();
+        out.close();
+    }
+
+    @Test
+    public void testKeyedMac() throws Exception {
+        // RFC 4231 test cases 1 and 2, case 6 has a key longer than a block
+        for (int i = 0; i < 2; i++) {
+            SecretBuffer key = SecretBuffer.allocate(keys[i].length).put(keys[i]);
+            HMACSHA256.KeyedMac keyed = HMACSHA256.keyed(key);
+            key.close();
+            SecretBuffer out = SecretBuffer.allocate(32);
+            byte[] copy = new byte[32];
+            for (int repeat = 0; repeat < 2; repeat++) {
+                keyed.mac(messages[i], out);
+                out.copyTo(copy, 0);
+                assertArrayEquals(hex(macs[i]), copy);
+            }
+            keyed.mac("b\u00fccher.example", out);
+            out.copyTo(copy, 0);
+            assertArrayEquals(HMACSHA256.mac(keys[i], "b\u00fccher.example"), copy);
+
+            keyed.close();
+            try {
+                keyed.mac(messages[i], out);
+                fail("closed keyed mac should not mac");
+            } catch (IllegalStateException expected) {
+            }
+            out.close();
+        }
+    }
+
+    @Test
+    public void testStringsAreUTF8() throws Exception {
+        byte[] key = repeat(7, 32);
+        for (String s : new String[] { "", "www.example.com", "b\u00fccher.example", "\u4f8b\u3048.jp",
+                "emoji \ud83d\ude00 site" }) {
+            assertArrayEquals(s, HMACSHA256.mac(key, s.getBytes("UTF-8")), HMACSHA256.mac(key, s));
+        }
+    }
+
+    @Test
+    public void testSHA256() throws Exception {
+        byte[] abc = "abc".getBytes("UTF-8");
+        byte[] expected = hex("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+        assertArrayEquals(expected, SHA256.digest(abc));
+        // the thread's digest does not carry anything over
+        assertArrayEquals(expected, SHA256.digest(abc));
+
+        byte[] out = new byte[33];
+        SHA256.digest(new byte[] { 0, 'a', 'b', 'c' }, 1, 3, out, 1);
+        assertArrayEquals(expected, Arrays.copyOfRange(out, 1, 33));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(32);
+        SHA256.digest(ByteBuffer.wrap(abc), direct);
+        assertEquals(32, direct.position());
+        byte[] copy = new byte[32];
+        direct.flip();
+        direct.get(copy);
+        assertArrayEquals(expected, copy);
+    }
+}
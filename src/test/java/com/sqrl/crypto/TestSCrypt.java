@@ -0,0 +1,261 @@
+package com.sqrl.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import com.sqrl.SQRLPasswordParameters;
+import com.sqrl.exception.SCryptAbortedException;
+import com.sqrl.metrics.SCryptTimings;
+
+public class TestSCrypt {
+
+    static byte[] hex(String s) throws DecoderException {
+        return Hex.decodeHex(s.replace(" ", "").toCharArray());
+    }
+
+    @Test
+    public void testRFC7914Vectors() throws Exception {
+        SCryptEngine engine = SCryptEngine.getDefault();
+        assertArrayEquals(hex("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                            + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"),
+                          engine.scrypt("password".getBytes(), "NaCl".getBytes(), 1024, 8, 16, 64));
+        assertArrayEquals(hex("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+                            + "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887"),
+                          engine.scrypt("pleaseletmein".getBytes(), "SodiumChloride".getBytes(), 16384, 8, 1, 64));
+    }
+
+    @Test
+    public void testMatchesLambdaworks() throws Exception {
+        Random rand = new Random(7914);
+        ExecutorService pool = SCryptEngine.newPool(4);
+        // 4 lanes at once, and a budget that only allows a single one
+        SCryptEngine parallel = new SCryptEngine(pool, 4, Long.MAX_VALUE);
+        SCryptEngine serial = new SCryptEngine(pool, 4, 1);
+        assertEquals(1, serial.parallelism(1024, 8, 16));
+        for (int i = 0; i < 10; i++) {
+            byte[] password = new byte[1 + rand.nextInt(20)];
+            byte[] salt = new byte[8];
+            rand.nextBytes(password);
+            rand.nextBytes(salt);
+            int N = 1 << (1 + rand.nextInt(9));
+            int r = 1 + rand.nextInt(8);
+            int p = 1 + rand.nextInt(9);
+            byte[] expected = com.lambdaworks.crypto.SCrypt.scryptJ(password, salt, N, r, p, 32);
+            assertArrayEquals(expected, parallel.scrypt(password, salt, N, r, p, 32));
+            assertArrayEquals(expected, serial.scrypt(password, salt, N, r, p, 32));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testScratchPool() throws Exception {
+        ExecutorService pool = SCryptEngine.newPool(2);
+        // room for exactly two tables of N=1024, r=8 (1MB each plus a little)
+        SCryptScratchPool scratchPool = new SCryptScratchPool(2 * (128 * 8 * 1024 + 4 * (64 * 8 + 16)));
+        SCryptEngine engine = new SCryptEngine(pool, 2, Long.MAX_VALUE, scratchPool);
+        byte[] expected = com.lambdaworks.crypto.SCrypt.scryptJ("password".getBytes(), "NaCl".getBytes(), 1024, 8, 4,
+                32);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(expected, engine.scrypt("password".getBytes(), "NaCl".getBytes(), 1024, 8, 4, 32));
+        }
+        // only the first call (two workers) had to allocate
+        assertTrue(scratchPool.getMisses() <= 2);
+        assertEquals(10, scratchPool.getHits() + scratchPool.getMisses());
+
+        // other parameters push the idle tables out, the cap always holds
+        engine.scrypt("password".getBytes(), "NaCl".getBytes(), 512, 8, 1, 32);
+        assertTrue(scratchPool.getPooledBytes() <= scratchPool.getMaxPooledBytes());
+
+        // a table larger than the whole pool is allocated with nothing idle next to it, and not kept afterwards
+        engine.scrypt("password".getBytes(), "NaCl".getBytes(), 1024, 8, 4, 32);
+        assertTrue(scratchPool.getPooledBytes() > 0);
+        engine.scrypt("password".getBytes(), "NaCl".getBytes(), 4096, 8, 1, 32);
+        assertEquals(0, scratchPool.getPooledBytes());
+        scratchPool.clear();
+        assertEquals(0, scratchPool.getPooledBytes());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testScheduler() throws Exception {
+        ExecutorService pool = SCryptEngine.newPool(4);
+        SCryptEngine engine = new SCryptEngine(pool, 4, Long.MAX_VALUE);
+        // each call needs 1MB per lane, the budget fits two lanes
+        final SCryptScheduler scheduler = new SCryptScheduler(engine, 2 * 1024 * 1024 + 64 * 1024);
+        final SQRLPasswordParameters parameters = new SQRLPasswordParameters(10, 8, 4);
+        assertEquals(2, scheduler.workers(1024, 8, 4));
+        // a call that does not fit at all still runs, alone
+        assertEquals(1, scheduler.workers(4096, 8, 1));
+        assertTrue(scheduler.footprintKB(4096, 8, 1, 1) > scheduler.getMemoryBudget() / 1024);
+
+        final byte[] expected = com.lambdaworks.crypto.SCrypt.scryptJ("password".getBytes(), "NaCl".getBytes(), 1024,
+                8, 4, 32);
+        final AtomicLong maxInUse = new AtomicLong();
+        SCryptTimings.clear();
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+        List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < 12; i++) {
+            results.add(callers.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    byte[] result = scheduler.scrypt("password".getBytes(), "NaCl".getBytes(), parameters);
+                    long inUse = scheduler.getMemoryInUse();
+                    if (inUse > maxInUse.get()) maxInUse.set(inUse);
+                    return result;
+                }
+            }));
+        }
+        for (Future<byte[]> result : results) {
+            assertArrayEquals(expected, result.get());
+        }
+        callers.shutdown();
+        pool.shutdown();
+        assertEquals(12, scheduler.getAdmitted());
+        // the engine time of every call, with the lanes it ran side by side
+        assertEquals(12, SCryptTimings.forParameters(10, 8, 4, 2).histogram.getCount());
+        SCryptTimings.clear();
+        assertTrue(maxInUse.get() <= scheduler.getMemoryBudget());
+        assertEquals(0, scheduler.getMemoryInUse());
+    }
+
+    @Test
+    public void testLargeCallNotStarved() throws Exception {
+        ExecutorService pool = SCryptEngine.newPool(1);
+        SCryptEngine engine = new SCryptEngine(pool, 1, Long.MAX_VALUE);
+        // four small calls of 129KB fit at once, the 513KB call only once none of them is running
+        final SCryptScheduler scheduler = new SCryptScheduler(engine, 4 * 129 * 1024);
+        final SQRLPasswordParameters small = new SQRLPasswordParameters(10, 1, 1);
+        // slow the small calls down so that they overlap even on a single core
+        final SCryptProgress slow = new SCryptProgress() {
+            @Override
+            public void progress(double fraction) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong smallCalls = new AtomicLong();
+        ExecutorService callers = Executors.newFixedThreadPool(5);
+        List<Future<?>> loops = new ArrayList<Future<?>>();
+        for (int i = 0; i < 4; i++) {
+            loops.add(callers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while (!done.get()) {
+                        scheduler.scrypt("password".getBytes(), "NaCl".getBytes(), small, null, slow);
+                        smallCalls.incrementAndGet();
+                    }
+                    return null;
+                }
+            }));
+        }
+        while (smallCalls.get() < 8) {
+            Thread.sleep(5);
+        }
+
+        // the small calls keep coming, but have to queue behind the large one once it waits
+        Future<byte[]> large = callers.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return scheduler.scrypt("password".getBytes(), "NaCl".getBytes(), new SQRLPasswordParameters(12, 1, 1));
+            }
+        });
+        try {
+            assertArrayEquals(com.lambdaworks.crypto.SCrypt.scryptJ("password".getBytes(), "NaCl".getBytes(), 4096, 1,
+                    1, 32), large.get(20, TimeUnit.SECONDS));
+        } catch (TimeoutException e) {
+            fail("large call starved by small ones: " + scheduler);
+        } finally {
+            done.set(true);
+            for (Future<?> loop : loops) {
+                loop.get();
+            }
+            callers.shutdown();
+            pool.shutdown();
+        }
+        assertEquals(0, scheduler.getMemoryInUse());
+    }
+
+    @Test
+    public void testOversizedCallRunsAlone() throws Exception {
+        ExecutorService pool = SCryptEngine.newPool(2);
+        SCryptScratchPool scratchPool = new SCryptScratchPool(Long.MAX_VALUE);
+        SCryptEngine engine = new SCryptEngine(pool, 2, Long.MAX_VALUE, scratchPool);
+        SCryptScheduler scheduler = new SCryptScheduler(engine, 2 * 1024 * 1024 + 64 * 1024);
+
+        scheduler.scrypt("password".getBytes(), "NaCl".getBytes(), new SQRLPasswordParameters(10, 8, 4));
+        assertTrue(scratchPool.getPooledBytes() > 0);
+
+        // 4MB does not fit in the budget: the idle 1MB tables are dropped before it runs, only its own is left
+        byte[] expected = com.lambdaworks.crypto.SCrypt.scryptJ("password".getBytes(), "NaCl".getBytes(), 4096, 8, 1,
+                32);
+        assertArrayEquals(expected, scheduler.scrypt("password".getBytes(), "NaCl".getBytes(),
+                new SQRLPasswordParameters(12, 8, 1)));
+        assertEquals(SCryptScratchPool.Scratch.bytes(4096, 8), scratchPool.getPooledBytes());
+        assertEquals(0, scheduler.getMemoryInUse());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testCancellation() throws Exception {
+        ExecutorService pool = SCryptEngine.newPool(2);
+        SCryptScratchPool scratchPool = new SCryptScratchPool(Long.MAX_VALUE);
+        SCryptEngine engine = new SCryptEngine(pool, 2, Long.MAX_VALUE, scratchPool);
+        final List<Double> fractions = new ArrayList<Double>();
+        SCryptProgress progress = new SCryptProgress() {
+            @Override
+            public synchronized void progress(double fraction) {
+                fractions.add(fraction);
+            }
+        };
+
+        // a token that is never used changes nothing, and progress runs up to 1
+        byte[] expected = com.lambdaworks.crypto.SCrypt.scryptJ("password".getBytes(), "NaCl".getBytes(), 1024, 8, 4,
+                32);
+        assertArrayEquals(expected, engine.scrypt("password".getBytes(), "NaCl".getBytes(), 1024, 8, 4, 32,
+                new CancellationToken(), progress));
+        assertEquals(1.0, fractions.get(fractions.size() - 1), 1e-9);
+
+        // N = 2^20 would take many seconds
+        long start = System.currentTimeMillis();
+        try {
+            engine.scrypt("password".getBytes(), "NaCl".getBytes(), 1 << 20, 1, 2, 32,
+                    CancellationToken.withTimeout(100), null);
+            fail("deadline should have aborted scrypt");
+        } catch (SCryptAbortedException e) {
+            assertEquals(SCryptAbortedException.Reason.DEADLINE_EXCEEDED, e.getReason());
+        }
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        CancellationToken cancelled = new CancellationToken();
+        cancelled.cancel();
+        try {
+            engine.scrypt("password".getBytes(), "NaCl".getBytes(), 1 << 20, 1, 2, 32, cancelled, null);
+            fail("cancelled token should have aborted scrypt");
+        } catch (SCryptAbortedException e) {
+            assertEquals(SCryptAbortedException.Reason.CANCELLED, e.getReason());
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,72 @@
+package com.sqrl.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value + " below bucket", LatencyHistogram.lowerBound(index) <= value);
+            assertTrue(value + " above bucket", LatencyHistogram.upperBound(index) >= value);
+        }
+        // buckets are contiguous
+        for (int i = 0; i < 200; i++) {
+            assertEquals(LatencyHistogram.upperBound(i) + 1, LatencyHistogram.lowerBound(i + 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500.0, histogram.getMean(), 1e-9);
+        assertEquals(1000000, histogram.getMax());
+        // within the bucket resolution of 1/16
+        assertEquals(500000, histogram.getMedian(), 500000 / 16);
+        assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 16);
+        assertTrue(histogram.getValueAtPercentile(100) <= histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMedian());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        // more threads than stripes, so some share a row
+        final LatencyHistogram histogram = new LatencyHistogram(2);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4L * 9999 * 10000 / 2, histogram.getTotal());
+        assertEquals(9999, histogram.getMax());
+        // every thread recorded the same values, whichever rows they went to
+        assertEquals(5000, histogram.getMedian(), 5000 / 16);
+        assertEquals(9900, histogram.getValueAtPercentile(99), 9900 / 16);
+    }
+}
@@ -0,0 +1,102 @@
+package com.sqrl.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.sqrl.crypto.Curve25519;
+
+public class TestOperationMetrics {
+
+    @Test
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter(4);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.increment();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void testSnapshot() {
+        OperationMetrics metrics = new OperationMetrics();
+        OperationMetrics.Operation operation = metrics.operation("test.op");
+        assertSame(operation, metrics.operation("test.op"));
+        operation.recordElapsed(1000000);
+        operation.recordElapsed(3000000);
+        operation.fail();
+        metrics.counter("test.counter").add(5);
+
+        OperationSnapshot snapshot = metrics.snapshot().get("test.op");
+        assertEquals(2, snapshot.getCalls());
+        assertEquals(1, snapshot.getErrors());
+        assertEquals(2000000.0, snapshot.getMeanNanos(), 1e-9);
+        assertEquals(1000000, snapshot.getP50Nanos(), 1000000 / 16);
+        assertEquals(3000000, snapshot.getMaxNanos());
+        assertEquals(5L, (long) metrics.getCounters().get("test.counter"));
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().get("test.op").getCalls());
+        assertEquals(0L, (long) metrics.getCounters().get("test.counter"));
+    }
+
+    @Test
+    public void testCryptoOperationsAreRecorded() {
+        byte[] sk = new byte[32];
+        byte[] pk = Curve25519.publickey(sk);
+        OperationSnapshot before = OperationMetrics.getDefault().snapshot().get("crypto.sign");
+        Curve25519.signature(new byte[] { 1, 2, 3 }, sk, pk);
+        OperationSnapshot after = OperationMetrics.getDefault().snapshot().get("crypto.sign");
+        assertEquals(before.getCalls() + 1, after.getCalls());
+        assertTrue(after.getMaxNanos() > 0);
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        OperationMetrics metrics = new OperationMetrics();
+        metrics.operation("test.op").recordElapsed(2000000);
+        metrics.counter("test.counter").increment();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.sqrl:type=OperationMetrics,name=test");
+        server.registerMBean(metrics, name);
+        try {
+            assertEquals(1L, server.getAttribute(name, "test.op.calls"));
+            assertEquals(2.0, (Double) server.getAttribute(name, "test.op.maxMillis"), 1e-9);
+            assertEquals(1L, server.getAttribute(name, "test.counter"));
+            List<String> attributes = new ArrayList<String>();
+            for (MBeanAttributeInfo info : server.getMBeanInfo(name).getAttributes()) {
+                attributes.add(info.getName());
+            }
+            assertTrue(attributes.contains("test.op.p99Millis"));
+
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "test.op.calls"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.sqrl.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import com.sqrl.SQRLPasswordParameters;
+import com.sqrl.crypto.SCrypt;
+import com.sqrl.crypto.SCryptEngine;
+import com.sqrl.crypto.SCryptScheduler;
+
+import org.apache.commons.math.stat.regression.SimpleRegression;
+import org.junit.Test;
+
+public class TestSCryptProfile {
+
+    SCryptProfile sampleProfile(long created) {
+        List<SCryptCandidate> candidates = new ArrayList<SCryptCandidate>();
+        candidates.add(new SCryptCandidate(8, 2.5, 14));
+        candidates.add(new SCryptCandidate(2, 3.0, 0.15, 16));
+        return new SCryptProfile(SCryptProfile.hostFingerprint(), created, candidates, new double[] { 2.5, 3.0, 9.0 });
+    }
+
+    @Test
+    public void testStoreAndLoad() throws Exception {
+        File file = File.createTempFile("scrypt", ".profile");
+        file.deleteOnExit();
+        long now = System.currentTimeMillis();
+        sampleProfile(now).store(file);
+
+        SCryptProfile loaded = SCryptProfile.load(file);
+        assertTrue(loaded.matches(SCryptProfile.hostFingerprint()));
+        assertFalse(loaded.matches("cpu=other"));
+        assertEquals(now, loaded.getCreated());
+        assertEquals(2, loaded.getCandidates().size());
+        assertEquals(16, loaded.getCandidates().get(1).Nx);
+        assertEquals(2, loaded.getCandidates().get(1).r);
+        assertEquals(3.0, loaded.getCandidates().get(1).cost, 1e-6);
+        assertEquals(0.15, loaded.getCandidates().get(1).costError, 1e-6);
+        assertArrayEquals(new double[] { 2.5, 3.0, 9.0 }, loaded.getCosts(), 1e-9);
+        assertFalse(loaded.isStale(60000, now + 1000));
+        assertTrue(loaded.isStale(60000, now + 120000));
+    }
+
+    @Test
+    public void testLoadRejectsGarbage() throws Exception {
+        File file = File.createTempFile("scrypt", ".profile");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write("version=1\ncandidates=3\n");
+        writer.close();
+        assertNull(SCryptProfile.load(file));
+        assertNull(SCryptProfile.load(new File(file.getPath() + ".missing")));
+    }
+
+    @Test
+    public void testForHostUsesProfileImmediately() throws Exception {
+        File file = File.createTempFile("scrypt", ".profile");
+        file.deleteOnExit();
+        sampleProfile(System.currentTimeMillis()).store(file);
+
+        SCryptMetrics metrics = SCryptMetrics.forHost(file, 24 * 60 * 60 * 1000L, 32 * 1024 * 1024);
+        assertTrue(metrics.awaitCalibration(0));
+        assertNotNull(metrics.paramsForTimeGivenMemory(1, 16 * 1024 * 1024));
+
+        // the loaded results are the same as the stored ones
+        SCryptMetrics other = new SCryptMetrics(new Random());
+        other.useProfile(SCryptProfile.load(file));
+        assertEquals(metrics.paramsForTimeGivenMemory(1, 16 * 1024 * 1024).toString(),
+                     other.paramsForTimeGivenMemory(1, 16 * 1024 * 1024).toString());
+    }
+
+    @Test
+    public void testParamsForThroughput() throws Exception {
+        Map<Integer, double[]> scaling = new HashMap<Integer, double[]>();
+        scaling.put(14, new double[] { 1.0, 1.5, 1.8, 2.0 });
+        scaling.put(16, new double[] { 1.0, 1.5, 1.8, 2.0 });
+        SCryptProfile profile = new SCryptProfile(SCryptProfile.hostFingerprint(), System.currentTimeMillis(),
+                sampleProfile(0).getCandidates(), sampleProfile(0).getCosts(), scaling);
+        File file = File.createTempFile("scrypt", ".profile");
+        file.deleteOnExit();
+        profile.store(file);
+
+        SCryptMetrics metrics = new SCryptMetrics(new Random());
+        metrics.useProfile(SCryptProfile.load(file));
+        assertEquals(2.0, metrics.getSlowdown(16, 4), 1e-9);
+        // past the measurements the last slope continues
+        assertEquals(2.4, metrics.getSlowdown(16, 6), 1e-9);
+
+        int memory = 16 * 1024 * 1024;
+        assertEquals(metrics.paramsForTimeGivenMemory(2, memory).toString(),
+                     metrics.paramsForThroughput(2, memory, 1).toString());
+        // four at once run at half speed, so each may only do half the work
+        SCryptPrediction single = metrics.paramsForTimeGivenMemory(1, memory);
+        SCryptPrediction concurrent = metrics.paramsForThroughput(2, memory, 4);
+        assertEquals(single.getHashN(), concurrent.getHashN());
+        assertEquals(single.getHashR(), concurrent.getHashR());
+        assertEquals(single.getHashP(), concurrent.getHashP());
+        assertEquals(2 * single.getPredictedTime(), concurrent.getPredictedTime(), 1e-9);
+    }
+
+    @Test
+    public void testBenchmarkConcurrency() throws Exception {
+        List<SCryptCandidate> candidates = new ArrayList<SCryptCandidate>();
+        candidates.add(new SCryptCandidate(8, 10.0, 10));
+        SCryptScheduler scheduler = new SCryptScheduler(SCryptEngine.getDefault(), 16 * 1024 * 1024);
+        SCryptMetrics metrics = new SCryptMetrics(new Random(), scheduler);
+        metrics.useProfile(new SCryptProfile(SCryptProfile.hostFingerprint(), 0, candidates, new double[] { 10.0 }));
+        metrics.benchmarkConcurrency(2);
+        // one call alone, then two at once, all through the scheduler
+        assertEquals(3, scheduler.getAdmitted());
+        double[] scaling = metrics.toProfile().getConcurrencyScaling().get(10);
+        assertEquals(2, scaling.length);
+        assertEquals(1.0, scaling[0], 1e-9);
+        assertTrue(scaling[1] > 0);
+    }
+
+    @Test
+    public void testPredictionBounds() throws Exception {
+        SCryptMetrics metrics = new SCryptMetrics(new Random());
+        metrics.useProfile(sampleProfile(System.currentTimeMillis()));
+        SCryptPrediction prediction = metrics.paramsForTimeGivenMemory(1, 16 * 1024 * 1024);
+        assertEquals(16, prediction.getHashN());
+        // predicted from the N=2^16 candidate, which is known to within 5%, with the lanes the default scheduler runs
+        int workers = SCryptScheduler.getDefault().workers(1 << 16, prediction.getHashR(), prediction.getHashP());
+        assertEquals(SCryptMetrics.getTime(3.0, 1 << 16, prediction.getHashR(), prediction.getHashP(), workers) / 1e9,
+                     prediction.getPredictedTime(), 1e-6);
+        assertEquals(0.95 * prediction.getPredictedTime(), prediction.getLowerBound(), 1e-6);
+        assertEquals(1.05 * prediction.getPredictedTime(), prediction.getUpperBound(), 1e-6);
+        // no padding any more, the prediction is close to what was asked for
+        assertTrue(prediction.getPredictedTime() >= 1 && prediction.getPredictedTime() < 1.25);
+    }
+
+    @Test
+    public void testPredictionWithParallelLanes() throws Exception {
+        SCryptMetrics serial = new SCryptMetrics(new Random(), scheduler(1));
+        serial.useProfile(sampleProfile(System.currentTimeMillis()));
+        SCryptMetrics parallel = new SCryptMetrics(new Random(), scheduler(4));
+        parallel.useProfile(sampleProfile(System.currentTimeMillis()));
+
+        // four lanes at a time do four times the lanes in the same time
+        SCryptPrediction one = serial.paramsForTimeGivenMemory(1, 16 * 1024 * 1024);
+        SCryptPrediction four = parallel.paramsForTimeGivenMemory(1, 16 * 1024 * 1024);
+        assertEquals(one.getHashN(), four.getHashN());
+        assertEquals(one.getHashR(), four.getHashR());
+        assertEquals(4 * one.getHashP(), four.getHashP());
+        assertEquals(one.getPredictedTime(), four.getPredictedTime(), 1e-6);
+    }
+
+    @Test
+    public void testBenchmarkRunsOnScheduler() throws Exception {
+        SCryptScheduler scheduler = new SCryptScheduler(SCryptEngine.getDefault(), 16 * 1024 * 1024);
+        SCryptMetrics metrics = new SCryptMetrics(new Random(), scheduler);
+        metrics.benchmarkSCrypt(256 * 1024);
+        assertTrue(scheduler.getAdmitted() > 1 << 16);
+        assertNotNull(metrics.paramsForTimeGivenMemory(0.1, 256 * 1024));
+    }
+
+    static SCryptScheduler scheduler(int lanes) {
+        SCryptEngine engine = new SCryptEngine(Executors.newSingleThreadExecutor(), lanes, Long.MAX_VALUE);
+        return new SCryptScheduler(engine, 1L << 30);
+    }
+
+    @Test
+    public void testCostRegression() {
+        SimpleRegression regression = new SimpleRegression();
+        assertFalse(SCryptMetrics.isPrecise(regression));
+        // 1ms of overhead per call plus 2ns per byte, with a little noise
+        regression.addData(1e6, 1e6 + 2e6 + 1000);
+        regression.addData(2e6, 1e6 + 4e6 - 1000);
+        assertFalse(SCryptMetrics.isPrecise(regression));
+        regression.addData(4e6, 1e6 + 8e6 + 500);
+        assertTrue(SCryptMetrics.isPrecise(regression));
+        assertEquals(2.0, regression.getSlope(), 0.01);
+
+        SimpleRegression noisy = new SimpleRegression();
+        noisy.addData(1e6, 3e6);
+        noisy.addData(2e6, 2e6);
+        noisy.addData(4e6, 9e6);
+        assertFalse(SCryptMetrics.isPrecise(noisy));
+    }
+
+    @Test
+    public void testDriftFromObservedCalls() throws Exception {
+        SCryptTimings.clear();
+        SQRLPasswordParameters parameters = new SQRLPasswordParameters(10, 2, 1);
+        SCrypt.scrypt("password", new byte[8], parameters);
+        assertEquals(1, SCryptTimings.forParameters(10, 2, 1, 1).histogram.getCount());
+
+        SCryptMetrics metrics = new SCryptMetrics(new Random());
+        metrics.useProfile(sampleProfile(System.currentTimeMillis()));
+        // predicted 3.0 per byte for N=2^16, calls take twice that, with the lanes one after the other as well as
+        // with four side by side, which take as long as one
+        SCryptTimings.clear();
+        for (int i = 0; i < 20; i++) {
+            SCryptTimings.record(16, 2, 4, 1, 2 * SCryptMetrics.getTime(3.0, 1 << 16, 2, 4));
+            SCryptTimings.record(16, 2, 4, 4, 2 * SCryptMetrics.getTime(3.0, 1 << 16, 2, 1));
+        }
+        SCryptTimings.record(14, 8, 1, 1, SCryptMetrics.getTime(2.5, 1 << 14, 8, 1));
+        Map<SCryptTimings.Timing, Double> drifting = metrics.findDrift(0.2, 10);
+        assertEquals(2, drifting.size());
+        for (Map.Entry<SCryptTimings.Timing, Double> e : drifting.entrySet()) {
+            assertEquals(16, e.getKey().Nx);
+            assertEquals(2.0, e.getValue(), 2.0 / 16);
+        }
+        // the N=2^14 one is on target but has too few calls to say
+        assertEquals(1.0, metrics.getDrift(SCryptTimings.forParameters(14, 8, 1, 1)), 1.0 / 16);
+
+        // taken over as calibration data, the prediction follows the calls
+        assertEquals(2, metrics.useObserved(10));
+        assertTrue(metrics.findDrift(0.2, 10).isEmpty());
+        SCryptTimings.clear();
+    }
+}
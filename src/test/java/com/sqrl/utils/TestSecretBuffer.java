@@ -0,0 +1,54 @@
+package com.sqrl.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestSecretBuffer {
+
+    @Test
+    public void testXor() {
+        byte[] a = { 1, 2, 3, 4 };
+        byte[] b = { 4, 3, 2, 1 };
+        SecretBuffer buffer = SecretBuffer.allocate(4).xor(a, b);
+        byte[] out = new byte[4];
+        buffer.copyTo(out, 0);
+        assertArrayEquals(Bytes.xor(a, b), out);
+        buffer.xor(b).copyTo(out, 0);
+        assertArrayEquals(a, out);
+        buffer.close();
+    }
+
+    @Test
+    public void testSlotsAreZeroedAndReused() {
+        SecretSlab slab = new SecretSlab(32, 2);
+        SecretBuffer first = slab.allocate(32).put(new byte[] { 1, 2, 3 });
+        SecretBuffer second = slab.allocate(16);
+        assertEquals(0, slab.getFree());
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(1, slab.getFree());
+
+        // the freed slot comes back zeroed
+        SecretBuffer third = slab.allocate(32);
+        for (int i = 0; i < 32; i++) {
+            assertEquals(0, third.get(i));
+        }
+        assertEquals(0, slab.getOverflows());
+
+        // a full slab still hands out buffers, but counts them
+        SecretBuffer fourth = slab.allocate(32);
+        assertEquals(1, slab.getOverflows());
+        second.close();
+        third.close();
+        fourth.close();
+        assertEquals(2, slab.getFree());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUseAfterClose() {
+        SecretBuffer buffer = SecretBuffer.allocate(32);
+        buffer.close();
+        buffer.get(0);
+    }
+}